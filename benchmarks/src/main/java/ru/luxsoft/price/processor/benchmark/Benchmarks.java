@@ -0,0 +1,16 @@
+package ru.luxsoft.price.processor.benchmark;
+
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    static String[] ccyPairs(int count) {
+        String[] ccyPairs = new String[count];
+        for (int i = 0; i < count; ++i) {
+            ccyPairs[i] = "CCY" + i;
+        }
+
+        return ccyPairs;
+    }
+}
@@ -0,0 +1,84 @@
+package ru.luxsoft.price.processor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.luxsoft.price.processor.throttler.price.PendingPrices;
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
+import ru.luxsoft.price.processor.throttler.price.StalenessLimits;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one conflation and one lookup of the next pending ccyPair for a subscriber, on the heap and off it, for
+ * different ccyPairs counts and counts of pending ccyPairs. Pending ccyPairs are found by a bit scan, so the cost
+ * should follow the pending count rather than the ccyPairs count.
+ *
+ * Run with -prof gc to compare collector work of the two stores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ConflationStoreBenchmark {
+
+    @Param({"false", "true"})
+    boolean offHeap;
+
+    @Param({"200", "2000", "20000"})
+    int ccyPairsCount;
+
+    @Param({"1", "16"})
+    int pendingCount;
+
+    PriceTable priceTable;
+
+    PendingPrices pendingPrices;
+
+    boolean[] alwaysPending;
+
+    int tick;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        priceTable = new PriceTable(ccyPairsCount, 60_000, new StalenessLimits(ccyPairsCount, 0,
+                Collections.emptyMap()), null, offHeap);
+        pendingPrices = new PendingPrices(ccyPairsCount, offHeap);
+        String[] ccyPairs = Benchmarks.ccyPairs(ccyPairsCount);
+        long nanoTime = System.nanoTime();
+        for (int i = 0; i < ccyPairsCount; ++i) {
+            priceTable.update(ccyPairs[i], i, nanoTime);
+        }
+        //Keeps pendingCount - 1 ccyPairs pending, spread over the table
+        alwaysPending = new boolean[ccyPairsCount];
+        for (int i = 1; i < pendingCount; ++i) {
+            alwaysPending[i * (ccyPairsCount / pendingCount)] = true;
+            pendingPrices.put(i * (ccyPairsCount / pendingCount), nanoTime);
+        }
+    }
+
+    @Benchmark
+    public int conflateAndPeek() {
+        long nanoTime = System.nanoTime();
+        int ccyPairId = tick++ % ccyPairsCount;
+        pendingPrices.put(ccyPairId, nanoTime);
+        int next = pendingPrices.peek(priceTable, nanoTime);
+        if (!alwaysPending[ccyPairId]) {
+            pendingPrices.take(ccyPairId);
+        }
+
+        return next;
+    }
+}
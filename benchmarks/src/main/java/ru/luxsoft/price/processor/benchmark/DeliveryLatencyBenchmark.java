@@ -0,0 +1,125 @@
+package ru.luxsoft.price.processor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.luxsoft.price.processor.PriceProcessor;
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tick to onPrice latency of a fast subscriber while slow subscribers are busy. Every invocation publishes a unique
+ * rate of the probe ccyPair and waits until the probe subscriber sees it, so the sample time distribution gives
+ * the latency percentiles.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeliveryLatencyBenchmark {
+
+    private static final String PROBE_CCY_PAIR = "PROBE";
+
+    @Param({"THREAD_POOLS"})
+    PriceThrottlerConfig.ExecutionMode executionMode;
+
+    @Param({"10", "100"})
+    int slowSubscribersCount;
+
+    @Param({"10"})
+    int fastSubscribersCount;
+
+    @Param({"200"})
+    int ccyPairsCount;
+
+    private PriceThrottler priceThrottler;
+
+    private ProbeSubscriber probeSubscriber;
+
+    private String[] ccyPairs;
+
+    private double nextRate;
+
+    private int tick;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setExecutionMode(executionMode)
+                .setSlowSubscriberRunTimeLowerBoundInMillis(5));
+        for (int i = 0; i < slowSubscribersCount; ++i) {
+            priceThrottler.subscribe(new SleepingSubscriber(10));
+        }
+        for (int i = 0; i < fastSubscribersCount; ++i) {
+            priceThrottler.subscribe((ccyPair, rate) -> {
+            });
+        }
+        probeSubscriber = new ProbeSubscriber();
+        priceThrottler.subscribe(probeSubscriber);
+        //The probe ccyPair is one of ccyPairsCount
+        ccyPairs = Benchmarks.ccyPairs(ccyPairsCount - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceThrottler.shutdown();
+    }
+
+    @Benchmark
+    public double tickToOnPrice() {
+        //Background ticks keep the slow subscribers loaded
+        priceThrottler.onPrice(ccyPairs[tick++ % ccyPairs.length], tick);
+
+        double rate = ++nextRate;
+        priceThrottler.onPrice(PROBE_CCY_PAIR, rate);
+        while (probeSubscriber.lastRate != rate) {
+            Thread.onSpinWait();
+        }
+
+        return rate;
+    }
+
+    private static class ProbeSubscriber implements PriceProcessor {
+
+        private volatile double lastRate;
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            if (PROBE_CCY_PAIR.equals(ccyPair)) {
+                lastRate = rate;
+            }
+        }
+    }
+
+    private static class SleepingSubscriber implements PriceProcessor {
+
+        private final long sleepInMillis;
+
+        SleepingSubscriber(long sleepInMillis) {
+            this.sleepInMillis = sleepInMillis;
+        }
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            try {
+                Thread.sleep(sleepInMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.luxsoft.price.processor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link PriceThrottler#onPrice(String, double)} for different subscribers and ccyPairs counts, with one
+ * and with many producer threads, with and without the ingestion ring buffer. Subscribers are fast, so without
+ * the ring buffer onPrice also pays for waking them up.
+ *
+ * Run with -prof gc to see the allocation rate per tick (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OnPriceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ThrottlerState {
+
+        @Param({"1", "50", "200"})
+        int subscribersCount;
+
+        @Param({"10", "200"})
+        int ccyPairsCount;
+
+        //Zero means onPrice publishes prices itself
+        @Param({"0", "65536"})
+        int ingestionRingBufferSize;
+
+        PriceThrottler priceThrottler;
+
+        String[] ccyPairs;
+
+        @Setup(Level.Trial)
+        public void setUp(Blackhole blackhole) {
+            priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                    .setIngestionRingBufferSize(ingestionRingBufferSize));
+            for (int i = 0; i < subscribersCount; ++i) {
+                priceThrottler.subscribe((ccyPair, rate) -> blackhole.consume(rate));
+            }
+            ccyPairs = Benchmarks.ccyPairs(ccyPairsCount);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            priceThrottler.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+
+        int tick;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void singleProducer(ThrottlerState throttlerState, ProducerState producerState) {
+        onPrice(throttlerState, producerState);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void manyProducers(ThrottlerState throttlerState, ProducerState producerState) {
+        onPrice(throttlerState, producerState);
+    }
+
+    private static void onPrice(ThrottlerState throttlerState, ProducerState producerState) {
+        int tick = producerState.tick++;
+        String[] ccyPairs = throttlerState.ccyPairs;
+        throttlerState.priceThrottler.onPrice(ccyPairs[(tick & Integer.MAX_VALUE) % ccyPairs.length], tick);
+    }
+}
@@ -0,0 +1,99 @@
+package ru.luxsoft.price.processor.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.luxsoft.price.processor.PriceProcessor;
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fan-out throughput to many fast subscribers. Every invocation publishes a tick of every ccyPair and a marker, and
+ * waits until every subscriber sees the marker. Both modes get the same count of delivery threads, so run it with
+ * -jvmArgs -XX:ActiveProcessorCount=N on N cores to compare how they scale.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedFanOutBenchmark {
+
+    private static final String MARKER_CCY_PAIR = "MARKER";
+
+    @Param({"THREAD_POOLS", "SHARDS"})
+    PriceThrottlerConfig.ExecutionMode executionMode;
+
+    @Param({"1", "2", "4", "8", "16"})
+    int shardsCount;
+
+    @Param({"200"})
+    int subscribersCount;
+
+    @Param({"100"})
+    int ccyPairsCount;
+
+    private final AtomicLong markersSeen = new AtomicLong();
+
+    private PriceThrottler priceThrottler;
+
+    private String[] ccyPairs;
+
+    private long round;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setExecutionMode(executionMode)
+                .setShardsCount(shardsCount)
+                .setFastSubscribersParallelism(shardsCount));
+        for (int i = 0; i < subscribersCount; ++i) {
+            priceThrottler.subscribe(new MarkerSubscriber());
+        }
+        ccyPairs = Benchmarks.ccyPairs(ccyPairsCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        priceThrottler.shutdown();
+    }
+
+    @Benchmark
+    public long fanOut() {
+        ++round;
+        for (String ccyPair : ccyPairs) {
+            priceThrottler.onPrice(ccyPair, round);
+        }
+        priceThrottler.onPrice(MARKER_CCY_PAIR, round);
+        long expected = round * subscribersCount;
+        while (markersSeen.get() < expected) {
+            Thread.onSpinWait();
+        }
+
+        return round;
+    }
+
+    private class MarkerSubscriber implements PriceProcessor {
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            if (MARKER_CCY_PAIR.equals(ccyPair)) {
+                markersSeen.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ru.luxsoft.price.processor;
+
+/**
+ * Subscriber which handles many prices in one call. We need this for slow subscribers: after a long call they
+ * may have hundreds of pending ccyPairs, and handling them one call each takes hundreds of long calls.
+ *
+ * A throttler delivers to such subscriber with {@link #onPrices(PriceSnapshot)} only, never with
+ * {@link #onPrice(String, double)}.
+ */
+public interface BatchPriceProcessor extends PriceProcessor {
+
+    /**
+     * Called with the last price of every ccyPair changed since the previous call, rare ccyPairs first
+     *
+     * @param prices - read-only view valid only during the call, copy what you need to keep
+     */
+    void onPrices(PriceSnapshot prices);
+}
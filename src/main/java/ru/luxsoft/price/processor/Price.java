@@ -0,0 +1,49 @@
+package ru.luxsoft.price.processor;
+
+import java.util.Objects;
+
+/**
+ * Immutable price of a ccyPair, an element of reactive price streams.
+ */
+public final class Price {
+
+    private final String ccyPair;
+
+    private final double rate;
+
+    public Price(String ccyPair, double rate) {
+        this.ccyPair = Objects.requireNonNull(ccyPair);
+        this.rate = rate;
+    }
+
+    public String getCcyPair() {
+        return ccyPair;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Price)) {
+            return false;
+        }
+        Price price = (Price) o;
+
+        return Double.compare(price.rate, rate) == 0 && ccyPair.equals(price.ccyPair);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * ccyPair.hashCode() + Double.hashCode(rate);
+    }
+
+    @Override
+    public String toString() {
+        return ccyPair + " " + rate;
+    }
+}
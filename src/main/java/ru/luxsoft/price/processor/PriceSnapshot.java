@@ -0,0 +1,20 @@
+package ru.luxsoft.price.processor;
+
+/**
+ * Read-only view of prices for {@link BatchPriceProcessor}. Prices are accessed by index, so there are no
+ * per-price objects.
+ */
+public interface PriceSnapshot {
+
+    int size();
+
+    /**
+     * @param index - from 0 to size() - 1
+     */
+    String getCcyPair(int index);
+
+    /**
+     * @param index - from 0 to size() - 1
+     */
+    double getRate(int index);
+}
@@ -0,0 +1,56 @@
+package ru.luxsoft.price.processor.throttler;
+
+/**
+ * This class stops deliveries to a subscriber which keeps throwing. We need this because a broken subscriber
+ * would burn a pool thread on every price otherwise.
+ *
+ * The breaker opens after the given count of failures in a row. Prices stay pending while it is open, so they
+ * are conflated and nothing is lost. After the open time one trial delivery is allowed: a success closes the
+ * breaker, a failure opens it again. Only the thread delivering to the subscriber changes the breaker.
+ */
+class CircuitBreaker {
+
+    private final int failuresThreshold;
+
+    private final long openTimeInNanos;
+
+    private volatile int failuresInRow;
+
+    private volatile long openUntilNanos;
+
+    /**
+     * @param failuresThreshold zero means the breaker never opens
+     */
+    CircuitBreaker(int failuresThreshold, long openTimeInNanos) {
+        this.failuresThreshold = failuresThreshold;
+        this.openTimeInNanos = openTimeInNanos;
+    }
+
+    boolean isOpen(long nanoTime) {
+        return failuresThreshold > 0 && failuresInRow >= failuresThreshold && nanoTime - openUntilNanos < 0;
+    }
+
+    void onSuccess() {
+        if (failuresInRow != 0) {
+            failuresInRow = 0;
+        }
+    }
+
+    /**
+     * @return true if the breaker has been opened by this failure
+     */
+    boolean onFailure(long nanoTime) {
+        int failures = failuresInRow + 1;
+        failuresInRow = failures;
+        if (failuresThreshold > 0 && failures >= failuresThreshold) {
+            openUntilNanos = nanoTime + openTimeInNanos;
+            return true;
+        }
+
+        return false;
+    }
+
+    int getFailuresInRow() {
+        return failuresInRow;
+    }
+}
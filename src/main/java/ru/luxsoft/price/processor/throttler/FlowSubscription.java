@@ -0,0 +1,129 @@
+package ru.luxsoft.price.processor.throttler;
+
+import org.apache.log4j.Logger;
+import ru.luxsoft.price.processor.Price;
+import ru.luxsoft.price.processor.PriceProcessor;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class adapts a {@link Flow.Subscriber} to a demand-driven subscription. We need this because a reactive
+ * consumer doesn't block, so it doesn't need a delivery thread of its own: prices are pushed to it by the thread
+ * which has published them or requested more, and only while there is demand. Without demand prices of a ccyPair
+ * conflate to the last one like for any other subscriber, and rare ccyPairs go first once demand comes.
+ *
+ * An exception thrown by onNext is handled like a failure of any other subscriber, it feeds the circuit breaker.
+ *
+ * Signals never overlap: onError or onComplete requested while onNext runs, by onNext itself for example, is signalled
+ * by the thread running onNext once it returns, and no onNext follows it.
+ */
+class FlowSubscription implements PriceProcessor, Flow.Subscription {
+
+    private static final Logger LOGGER = Logger.getLogger(FlowSubscription.class);
+
+    private final Flow.Subscriber<? super Price> subscriber;
+
+    private final PriceThrottler priceThrottler;
+
+    private final PricePublisher pricePublisher;
+
+    private volatile Subscription subscription;
+
+    //Set once the subscriber has been given its terminal signal or has cancelled
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    //One while onNext runs or once the terminal signal is claimed, more if the terminal signal waits for onNext
+    private final AtomicInteger signalling = new AtomicInteger();
+
+    private volatile Runnable terminalSignal;
+
+    FlowSubscription(Flow.Subscriber<? super Price> subscriber, PriceThrottler priceThrottler,
+                     PricePublisher pricePublisher) {
+        this.subscriber = subscriber;
+        this.priceThrottler = priceThrottler;
+        this.pricePublisher = pricePublisher;
+    }
+
+    /**
+     * Signals onSubscribe. No price is delivered before it, since there is no demand yet.
+     */
+    void start(Subscription subscription) {
+        this.subscription = subscription;
+        subscriber.onSubscribe(this);
+    }
+
+    @Override
+    public void onPrice(String ccyPair, double rate) {
+        //Deliveries are serial, so only a terminal signal can be in the way
+        if (!signalling.compareAndSet(0, 1)) {
+            return;
+        }
+        try {
+            subscriber.onNext(new Price(ccyPair, rate));
+        } finally {
+            if (signalling.decrementAndGet() != 0) {
+                terminalSignal.run();
+            }
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            if (done.compareAndSet(false, true)) {
+                priceThrottler.unsubscribe(this);
+                IllegalArgumentException error = new IllegalArgumentException("Requested count must be positive: " + n);
+                signalTerminal(() -> subscriber.onError(error));
+            }
+            return;
+        }
+        subscription.addDemand(n);
+        //Delivers right here unless another thread is delivering, then that thread takes the demand
+        pricePublisher.wakeUp(subscription);
+    }
+
+    @Override
+    public void cancel() {
+        if (done.compareAndSet(false, true)) {
+            priceThrottler.unsubscribe(this);
+        }
+    }
+
+    /**
+     * Unsubscribes and signals onComplete once a running delivery, if any, is over. If onNext still runs at
+     * the deadline, the thread running it signals onComplete when it returns: it is a thread which publishes prices
+     * or requests them, so it isn't interrupted.
+     */
+    void complete(long deadlineNanos) {
+        if (done.compareAndSet(false, true)) {
+            priceThrottler.unsubscribe(this);
+            while (!subscription.isIdle()) {
+                if (System.nanoTime() - deadlineNanos >= 0) {
+                    LOGGER.warn("Subscriber " + subscriber + " is still in onNext at shutdown, onComplete follows it");
+                    break;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            signalTerminal(subscriber::onComplete);
+        }
+    }
+
+    /**
+     * Signals at once unless onNext runs, then the thread running it signals once it returns.
+     */
+    private void signalTerminal(Runnable signal) {
+        terminalSignal = signal;
+        if (signalling.getAndIncrement() == 0) {
+            signal.run();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(subscriber);
+    }
+}
@@ -0,0 +1,48 @@
+package ru.luxsoft.price.processor.throttler;
+
+import ru.luxsoft.price.processor.PriceSnapshot;
+
+import java.util.Objects;
+
+/**
+ * This class collects pending prices of one batch subscriber. It's reused for every batch, so the arrays are
+ * allocated once per subscription.
+ */
+class PriceBatch implements PriceSnapshot {
+
+    private final String[] ccyPairs;
+
+    private final double[] rates;
+
+    private int size;
+
+    PriceBatch(int capacity) {
+        this.ccyPairs = new String[capacity];
+        this.rates = new double[capacity];
+    }
+
+    void add(String ccyPair, double rate) {
+        ccyPairs[size] = ccyPair;
+        rates[size] = rate;
+        ++size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getCcyPair(int index) {
+        return ccyPairs[Objects.checkIndex(index, size)];
+    }
+
+    @Override
+    public double getRate(int index) {
+        return rates[Objects.checkIndex(index, size)];
+    }
+}
@@ -0,0 +1,230 @@
+package ru.luxsoft.price.processor.throttler;
+
+import org.apache.log4j.Logger;
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class decouples upstream threads from the fan-out to subscribers. We need this because feed handlers call
+ * onPrice concurrently and shouldn't pay for the fan-out.
+ *
+ * Producers claim a slot of a bounded preallocated ring buffer with a single atomic increment, write the price
+ * and return. Sequencer threads read the ring buffer in order, update the price table and publish prices. Each
+ * sequencer handles its own subset of ccyPairs, so ticks of one ccyPair are always handled in order by one thread.
+ * If the ring buffer is full producers wait for the slowest sequencer with the configured wait strategy. Prices
+ * offered after shutdown are dropped.
+ */
+class PriceIngestion {
+
+    private static final Logger LOGGER = Logger.getLogger(PriceIngestion.class);
+
+    private static final int SPIN_TRIES = 100;
+
+    private static final long PARK_TIME_IN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    //Park time doubles while idle up to this, so an idle sequencer wakes up a thousand times a second at most
+    private static final long MAX_PARK_TIME_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    //Idle counts stop growing once the park time has reached the max
+    private static final int MAX_IDLE_COUNT = SPIN_TRIES
+            + Long.SIZE - Long.numberOfLeadingZeros(MAX_PARK_TIME_IN_NANOS / PARK_TIME_IN_NANOS);
+
+    private final int[] ccyPairIds;
+
+    private final long[] rates;
+
+    private final long[] nanoTimes;
+
+    //Sequence of the price written to the slot, so sequencers know the slot is ready
+    private final AtomicLongArray publishedSequences;
+
+    private final int mask;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    private final Sequencer[] sequencers;
+
+    private final PriceThrottlerConfig.WaitStrategy waitStrategy;
+
+    private final PriceTable priceTable;
+
+    private final PricePublisher pricePublisher;
+
+    private volatile long cachedMinConsumedSequence = -1;
+
+    private volatile boolean running = true;
+
+    PriceIngestion(int ringBufferSize, int sequencersCount, PriceThrottlerConfig.WaitStrategy waitStrategy,
+                   PriceTable priceTable, PricePublisher pricePublisher) {
+        if (Integer.bitCount(ringBufferSize) != 1) {
+            throw new IllegalArgumentException("Ring buffer size must be a power of two: " + ringBufferSize);
+        }
+        this.ccyPairIds = new int[ringBufferSize];
+        this.rates = new long[ringBufferSize];
+        this.nanoTimes = new long[ringBufferSize];
+        this.publishedSequences = new AtomicLongArray(ringBufferSize);
+        for (int i = 0; i < ringBufferSize; ++i) {
+            publishedSequences.set(i, -1);
+        }
+        this.mask = ringBufferSize - 1;
+        this.waitStrategy = waitStrategy;
+        this.priceTable = priceTable;
+        this.pricePublisher = pricePublisher;
+        this.sequencers = new Sequencer[sequencersCount];
+        for (int i = 0; i < sequencersCount; ++i) {
+            sequencers[i] = new Sequencer(i);
+        }
+        for (Sequencer sequencer : sequencers) {
+            sequencer.thread.start();
+        }
+    }
+
+    /**
+     * @return false if the price is dropped, because ingestion is shut down
+     */
+    boolean offer(int ccyPairId, double rate, long nanoTime) {
+        if (!running) {
+            return false;
+        }
+        long sequence = nextSequence.getAndIncrement();
+        long wrapPoint = sequence - publishedSequences.length();
+        if (wrapPoint > cachedMinConsumedSequence && !awaitFreeSlot(wrapPoint)) {
+            return false;
+        }
+        int index = (int) (sequence & mask);
+        ccyPairIds[index] = ccyPairId;
+        rates[index] = Double.doubleToRawLongBits(rate);
+        nanoTimes[index] = nanoTime;
+        publishedSequences.set(index, sequence);
+
+        return true;
+    }
+
+    /**
+     * Stops sequencers after they have handled every offered price or at the deadline, whichever comes first.
+     * Sequencers still running then are daemons and don't hold the JVM.
+     */
+    void shutdown(long deadlineNanos) {
+        running = false;
+        try {
+            for (Sequencer sequencer : sequencers) {
+                long timeout = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (timeout > 0) {
+                    sequencer.thread.join(timeout);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return false if sequencers have stopped and the slot will never be free
+     */
+    private boolean awaitFreeSlot(long wrapPoint) {
+        int idleCount = 0;
+        long minConsumedSequence;
+        while (wrapPoint > (minConsumedSequence = getMinConsumedSequence())) {
+            if (!running && !isSequencerAlive()) {
+                return false;
+            }
+            idleCount = idle(waitStrategy, idleCount);
+        }
+        cachedMinConsumedSequence = minConsumedSequence;
+
+        return true;
+    }
+
+    private boolean isSequencerAlive() {
+        for (Sequencer sequencer : sequencers) {
+            if (sequencer.thread.isAlive()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private long getMinConsumedSequence() {
+        long min = Long.MAX_VALUE;
+        for (Sequencer sequencer : sequencers) {
+            min = Math.min(min, sequencer.consumedSequence.get());
+        }
+
+        return min;
+    }
+
+    /**
+     * @return the idle count of the next wait
+     */
+    private static int idle(PriceThrottlerConfig.WaitStrategy waitStrategy, int idleCount) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                if (idleCount < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            default:
+                if (idleCount < SPIN_TRIES) {
+                    Thread.onSpinWait();
+                } else {
+                    long parkTime = PARK_TIME_IN_NANOS << (idleCount - SPIN_TRIES);
+                    LockSupport.parkNanos(Math.min(MAX_PARK_TIME_IN_NANOS, parkTime));
+                }
+        }
+
+        return Math.min(idleCount + 1, MAX_IDLE_COUNT);
+    }
+
+    private class Sequencer implements Runnable {
+
+        private final int number;
+
+        private final AtomicLong consumedSequence = new AtomicLong(-1);
+
+        private final Thread thread;
+
+        Sequencer(int number) {
+            this.number = number;
+            this.thread = new Thread(this, "price-sequencer-" + number);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long sequence = 0;
+            int idleCount = 0;
+            while (true) {
+                int index = (int) (sequence & mask);
+                if (publishedSequences.get(index) != sequence) {
+                    if (!running && sequence >= nextSequence.get()) {
+                        return;
+                    }
+                    idleCount = idle(waitStrategy, idleCount);
+                    continue;
+                }
+                idleCount = 0;
+                int ccyPairId = ccyPairIds[index];
+                if (ccyPairId % sequencers.length == number) {
+                    try {
+                        priceTable.update(ccyPairId, Double.longBitsToDouble(rates[index]), nanoTimes[index]);
+                        pricePublisher.publish(ccyPairId, nanoTimes[index]);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Failed to publish price", e);
+                    }
+                }
+                consumedSequence.lazySet(sequence);
+                ++sequence;
+            }
+        }
+    }
+}
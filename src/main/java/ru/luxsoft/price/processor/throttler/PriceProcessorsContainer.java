@@ -1,107 +1,96 @@
 package ru.luxsoft.price.processor.throttler;
 
 import ru.luxsoft.price.processor.PriceProcessor;
-import ru.luxsoft.price.processor.throttler.price.PriorityPrice;
-import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
+import ru.luxsoft.price.processor.throttler.price.DeliveryFilter;
+import ru.luxsoft.price.processor.throttler.price.PendingPrices;
 
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.PriorityBlockingQueue;
 
 /**
- * This class holds processors and controls processors invocation queue. We need this because
- * we can't publish price to all subscribers at the same time. So we need organize the queue.
+ * This class holds processors and their subscriptions. Every subscription keeps the prices which are not
+ * published to its processor yet.
  */
 class PriceProcessorsContainer {
 
-    private final Map<PriceProcessor, PriorityBlockingQueue<PriorityPrice>> priceProcessorBlockingQueueMap = new ConcurrentHashMap<>();
+    private final Map<PriceProcessor, Subscription> subscriptions = new ConcurrentHashMap<>();
 
-    private final Map<PriceProcessor, TaskRapidityResolver.Rapidity> processorRapidityMap = new ConcurrentHashMap<>();
+    //Unsubscribed in the middle of a delivery, kept until the delivery is done
+    private final Map<PriceProcessor, Subscription> runningUnsubscribed = new ConcurrentHashMap<>();
 
-    private final BlockingQueue<PriceProcessor> slowProcessorsQueue = new LinkedBlockingQueue<>();
+    //Copy on write array for publishing prices without iterator allocation. Subscriptions change rarely
+    private volatile Subscription[] subscriptionsArray = new Subscription[0];
 
-    private final BlockingQueue<PriceProcessor> fastProcessorsQueue = new LinkedBlockingQueue<>();
+    private final int ccyPairsCapacity;
 
-    void addProcessor(PriceProcessor priceProcessor) {
-        priceProcessorBlockingQueueMap.put(priceProcessor, new PriorityBlockingQueue<>());
-        processorRapidityMap.put(priceProcessor, TaskRapidityResolver.Rapidity.SLOW);
+    private final boolean offHeap;
 
-        slowProcessorsQueue.add(priceProcessor);
-    }
-
-    synchronized void removeProcessor(PriceProcessor priceProcessor) {
-        slowProcessorsQueue.remove(priceProcessor);
-        fastProcessorsQueue.remove(priceProcessor);
+    private final int circuitBreakerFailuresThreshold;
 
-        priceProcessorBlockingQueueMap.remove(priceProcessor);
-        processorRapidityMap.remove(priceProcessor);
-    }
-
-    public long getProcessorsCount(TaskRapidityResolver.Rapidity rapidity) {
-        return processorRapidityMap.values().stream().filter(f -> f.equals(rapidity)).count();
-    }
-
-    long getProcessorsCount() {
-        return processorRapidityMap.size();
-    }
-
-    Set<PriceProcessor> getPriceProcessors() {
-        return processorRapidityMap.keySet();
-    }
+    private final long circuitBreakerOpenTimeInNanos;
 
-    BlockingQueue<PriorityPrice> getProcessorQueue(PriceProcessor priceProcessor) {
-        return priceProcessorBlockingQueueMap.get(priceProcessor);
+    /**
+     * @param offHeap true to keep pending prices of subscribers in native memory
+     */
+    PriceProcessorsContainer(int ccyPairsCapacity, boolean offHeap, int circuitBreakerFailuresThreshold,
+                             long circuitBreakerOpenTimeInNanos) {
+        this.ccyPairsCapacity = ccyPairsCapacity;
+        this.offHeap = offHeap;
+        this.circuitBreakerFailuresThreshold = circuitBreakerFailuresThreshold;
+        this.circuitBreakerOpenTimeInNanos = circuitBreakerOpenTimeInNanos;
     }
 
-    TaskRapidityResolver.Rapidity getRapidity(PriceProcessor priceProcessor) {
-        return processorRapidityMap.get(priceProcessor);
-    }
-
-    void addOrReplacePrice(PriorityPrice priorityPrice) {
-        priceProcessorBlockingQueueMap.forEach((priceProcessor, priorityPrices) -> {
-            priorityPrices.remove(priorityPrice);
-            priorityPrices.add(priorityPrice);
-        });
-    }
-
-    synchronized PriceProcessor getNextProcessor() {
-        PriceProcessor processor = slowProcessorsQueue.poll();
-        if (processor == null) {
+    /**
+     * @param deliveryDeadlineInNanos zero means no deadline
+     * @param deliveryFilter null means every price is worth a delivery
+     * @param weight length of the subscriber delivery turn in base turns
+     * @return the new subscription or null if the processor is already subscribed
+     */
+    synchronized Subscription addProcessor(PriceProcessor priceProcessor, long deliveryDeadlineInNanos,
+                                           DeliveryFilter deliveryFilter, PriorityClass priorityClass, int weight) {
+        Subscription subscription = new Subscription(priceProcessor, new PendingPrices(ccyPairsCapacity, offHeap),
+                ccyPairsCapacity, deliveryDeadlineInNanos,
+                new CircuitBreaker(circuitBreakerFailuresThreshold, circuitBreakerOpenTimeInNanos), deliveryFilter,
+                priorityClass, weight);
+        if (subscriptions.putIfAbsent(priceProcessor, subscription) != null) {
             return null;
         }
-        slowProcessorsQueue.add(processor);
+        subscription.setPredecessor(runningUnsubscribed.remove(priceProcessor));
+        subscriptionsArray = subscriptions.values().toArray(new Subscription[0]);
 
-        return processor;
+        return subscription;
     }
 
-    synchronized PriceProcessor getNextFastProcessor() {
-        PriceProcessor processor = fastProcessorsQueue.poll();
-        if (processor == null) {
-            return null;
+    /**
+     * No new delivery starts after the subscription is removed. A delivery running at the moment is remembered,
+     * so re-subscribing the processor waits for it instead of delivering from two threads at once.
+     *
+     * @return the removed subscription or null if the processor isn't subscribed
+     */
+    synchronized Subscription removeProcessor(PriceProcessor priceProcessor) {
+        Subscription subscription = subscriptions.remove(priceProcessor);
+        if (subscription != null) {
+            subscriptionsArray = subscriptions.values().toArray(new Subscription[0]);
+            subscription.cancel();
+            if (subscription.isRunning() || subscription.isWaitingForPredecessor()) {
+                runningUnsubscribed.put(priceProcessor, subscription);
+            }
         }
-        fastProcessorsQueue.add(processor);
-
-        return processor;
-    }
 
-    PriorityPrice getNextPrice(PriceProcessor priceProcessor) {
-        return priceProcessorBlockingQueueMap.get(priceProcessor).poll();
+        return subscription;
     }
 
-    synchronized void markProcessorAsFast(PriceProcessor priceProcessor) {
-        slowProcessorsQueue.remove(priceProcessor);
-        processorRapidityMap.put(priceProcessor, TaskRapidityResolver.Rapidity.FAST);
-        fastProcessorsQueue.add(priceProcessor);
+    /**
+     * Forgets unsubscribed subscriptions which have finished their deliveries.
+     */
+    void purgeUnsubscribed() {
+        if (!runningUnsubscribed.isEmpty()) {
+            runningUnsubscribed.values().removeIf(subscription -> !subscription.isRunning()
+                    && !subscription.isWaitingForPredecessor());
+        }
     }
 
-    void printStats() {
-        System.out.println("Slow subscribers count " + getProcessorsCount(TaskRapidityResolver.Rapidity.SLOW));
-        System.out.println("Fast subscribers count " + getProcessorsCount(TaskRapidityResolver.Rapidity.FAST));
-        System.out.println("Slow subscribers queue size " + slowProcessorsQueue.size());
-        System.out.println("Fast subscribers queue size " + fastProcessorsQueue.size());
-        System.out.println("All processors count " + getProcessorsCount());
+    Subscription[] getSubscriptions() {
+        return subscriptionsArray;
     }
 }
@@ -1,123 +1,469 @@
 package ru.luxsoft.price.processor.throttler;
 
+import org.apache.log4j.Logger;
+import ru.luxsoft.price.processor.BatchPriceProcessor;
 import ru.luxsoft.price.processor.PriceProcessor;
-import ru.luxsoft.price.processor.throttler.price.PriorityPrice;
+import ru.luxsoft.price.processor.throttler.events.DeliveryCompletedEvent;
+import ru.luxsoft.price.processor.throttler.events.DeliveryDispatchedEvent;
+import ru.luxsoft.price.processor.throttler.events.PriceConflatedEvent;
+import ru.luxsoft.price.processor.throttler.events.TierChangedEvent;
+import ru.luxsoft.price.processor.throttler.price.DeliveryFilter;
+import ru.luxsoft.price.processor.throttler.price.PendingPrices;
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
 import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
 
-import java.util.*;
-import java.util.concurrent.*;
+import jdk.jfr.EventType;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * This class represents scheduled prices publisher to subscribers. We need this because we wan't affect
- * slow subscribers to fast subscribers. So the class will publish prices to slow and fast subscribers
- * concurrently in different thread pools.
+ * This class publishes prices to subscribers. A new price is put to every subscription and wakes the
+ * subscription up. Subclasses decide which threads run subscribers deliveries, except demand-driven subscriptions
+ * which are delivered to by threads which publish prices or request more, see {@link #drain(Subscription)}.
+ *
+ * Subscriber exceptions never leave this class: they are counted and feed the subscriber's {@link CircuitBreaker}.
+ * A watchdog thread interrupts calls which have passed their subscriber's delivery deadline and lets subclasses
+ * isolate such subscribers, see {@link #overdue(Subscription)}.
+ *
+ * Conflations, dispatches, calls and tier changes are flight recorder events, see
+ * {@link ru.luxsoft.price.processor.throttler.events.ThrottlerEvents}.
  */
-class PricePublisher {
+abstract class PricePublisher {
 
-    private static final int SCHEDULE_TIME_IN_MILLIS = 1000;
+    private static final Logger LOGGER = Logger.getLogger(PricePublisher.class);
 
-    private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1);
+    private static final long WATCHDOG_PERIOD_IN_MILLIS = 10;
 
-    private final List<PriceProcessor> inProgressProcessors = Collections.synchronizedList(new ArrayList<>());
+    //Checked before an event is allocated, there would be one per tick and subscriber
+    private static final EventType PRICE_CONFLATED_EVENT_TYPE = EventType.getEventType(PriceConflatedEvent.class);
 
-    private final ThreadPoolExecutor fastSubscribersThreadPool;
+    //Checked before an event is allocated, there would be one or two per delivery
+    private static final EventType DELIVERY_DISPATCHED_EVENT_TYPE =
+            EventType.getEventType(DeliveryDispatchedEvent.class);
 
-    private final ThreadPoolExecutor slowSubscribersThreadPool;
+    private static final EventType DELIVERY_COMPLETED_EVENT_TYPE =
+            EventType.getEventType(DeliveryCompletedEvent.class);
 
     private final TaskRapidityResolver taskRapidityResolver;
 
-    private PriceProcessorsContainer priceProcessors;
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "price-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    PricePublisher(ThreadPoolExecutor slowSubscribersThreadPool, ThreadPoolExecutor fastSubscribersThreadPool,
-                   TaskRapidityResolver taskRapidityResolver, PriceProcessorsContainer priceProcessors) {
-        this.priceProcessors = priceProcessors;
-        this.fastSubscribersThreadPool = fastSubscribersThreadPool;
-        this.slowSubscribersThreadPool = slowSubscribersThreadPool;
+    protected final PriceProcessorsContainer priceProcessors;
+
+    protected final PriceTable priceTable;
+
+    PricePublisher(TaskRapidityResolver taskRapidityResolver, PriceProcessorsContainer priceProcessors,
+                   PriceTable priceTable) {
         this.taskRapidityResolver = taskRapidityResolver;
+        this.priceProcessors = priceProcessors;
+        this.priceTable = priceTable;
     }
 
-    void shutdown() {
-        shutdownExecutorService(scheduledExecutorService);
-        shutdownExecutorService(slowSubscribersThreadPool);
-        shutdownExecutorService(fastSubscribersThreadPool);
+    /**
+     * Publishes the last price of the ccyPair from the price table. Doesn't allocate anything unless an idle
+     * subscription has to be woken up. A price which isn't worth a delivery to the subscriber is deferred by its
+     * {@link DeliveryFilter}.
+     */
+    void publish(int ccyPairId, long nanoTime) {
+        publish(priceProcessors.getSubscriptions(), ccyPairId, nanoTime);
+    }
+
+    void publish(Subscription[] subscriptions, int ccyPairId, long nanoTime) {
+        double rate = priceTable.getRate(ccyPairId);
+        for (Subscription subscription : subscriptions) {
+            DeliveryFilter deliveryFilter = subscription.getDeliveryFilter();
+            if (deliveryFilter != null
+                    && !deliveryFilter.accept(ccyPairId, rate, nanoTime, priceTable.getCcyPairRegistry())) {
+                subscription.getMetrics().onFiltered();
+                continue;
+            }
+            boolean overwritten = !subscription.getPendingPrices().put(ccyPairId, nanoTime);
+            if (overwritten) {
+                subscription.getMetrics().onConflated();
+            }
+            if (PRICE_CONFLATED_EVENT_TYPE.isEnabled()) {
+                PriceConflatedEvent event = new PriceConflatedEvent();
+                event.subscriber = String.valueOf(subscription.getPriceProcessor());
+                event.ccyPair = priceTable.getCcyPair(ccyPairId);
+                event.overwritten = overwritten;
+                event.commit();
+            }
+            if (!subscription.getCircuitBreaker().isOpen(nanoTime)) {
+                wakeUp(subscription);
+            }
+        }
     }
 
     void start() {
-        scheduledExecutorService.scheduleWithFixedDelay(() -> {
-            publishToFastSubscribers();
-            publishToSlowSubscribers();
-        }, SCHEDULE_TIME_IN_MILLIS, SCHEDULE_TIME_IN_MILLIS, TimeUnit.MILLISECONDS);
+        watchdog.scheduleWithFixedDelay(this::watch, WATCHDOG_PERIOD_IN_MILLIS, WATCHDOG_PERIOD_IN_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    void subscribed(Subscription subscription) {
+        wakeUp(subscription);
     }
 
-    void printStats() {
-        System.out.println("In progress subscribers count " + inProgressProcessors.size());
+    void unsubscribed(Subscription subscription) {
+    }
 
-        Set<PriceProcessor> priceProcessorsSet = this.priceProcessors.getPriceProcessors();
-        for (PriceProcessor priceProcessor : priceProcessorsSet) {
-            BlockingQueue<PriorityPrice> processorQueue = priceProcessors.getProcessorQueue(priceProcessor);
-            TaskRapidityResolver.Rapidity rapidity = priceProcessors.getRapidity(priceProcessor);
-            System.out.println(rapidity.name() + " processor queue size " + processorQueue.size());
+    /**
+     * Waits until subscribers receive their pending prices, then stops delivery threads. Subscribers with an open
+     * circuit breaker aren't waited for. The whole shutdown takes no longer than the timeout, calls still running
+     * then are interrupted.
+     */
+    void shutdown(long timeoutInNanos) {
+        long deadline = System.nanoTime() + timeoutInNanos;
+        boolean drained = awaitDrained(deadline);
+        watchdog.shutdownNow();
+        if (!drained) {
+            LOGGER.warn("Pending prices aren't delivered to all subscribers in shutdown timeout");
         }
+        stop(deadline);
     }
 
-    private void publishToFastSubscribers() {
-        int freeThreads = fastSubscribersThreadPool.getCorePoolSize() - fastSubscribersThreadPool.getActiveCount();
-        if (freeThreads > 0) {
-            for (int i = 0; i < freeThreads; ++i) {
-                PriceProcessor fastProcessor = priceProcessors.getNextFastProcessor();
-                if (fastProcessor == null) {
-                    return;
-                }
-                if (!inProgressProcessors.contains(fastProcessor)) {
-                    PriorityPrice price = priceProcessors.getNextPrice(fastProcessor);
-                    if (price == null) {
-                        return;
-                    }
-                    inProgressProcessors.add(fastProcessor);
-                    fastSubscribersThreadPool.execute(() -> {
-                        fastProcessor.onPrice(price.getCcyPair(), price.getRate());
-                        inProgressProcessors.remove(fastProcessor);
-                    });
+    /**
+     * Stops delivery threads, running calls have time till the deadline to finish.
+     */
+    abstract void stop(long deadlineNanos);
+
+    /**
+     * Makes the subscription deliver its pending prices if it is idle.
+     */
+    final void wakeUp(Subscription subscription) {
+        if (subscription.isDemandDriven()) {
+            drain(subscription);
+        } else {
+            schedule(subscription);
+        }
+    }
+
+    /**
+     * Makes a delivery thread deliver pending prices of the subscription if it is idle.
+     */
+    abstract void schedule(Subscription subscription);
+
+    /**
+     * Delivers pending prices of a demand-driven subscription on the calling thread while there is demand. Only one
+     * thread delivers at a time, others return at once and the delivering thread picks up their prices and demand.
+     */
+    private void drain(Subscription subscription) {
+        while (subscription.tryMarkScheduled()) {
+            //Marked running before checking it is still active, so unsubscribe can't miss a running delivery
+            subscription.markRunning();
+            try {
+                while (subscription.isActive() && subscription.hasDemand() && deliverNext(subscription)) {
+                    subscription.onDemandMet();
                 }
+            } finally {
+                subscription.markIdle();
+            }
+            //Prices or demand may have come after the last check, while this thread was still marked running
+            if (!isDeliverable(subscription, System.nanoTime())) {
+                return;
             }
         }
     }
 
-    private void publishToSlowSubscribers() {
-        int freeThreads = fastSubscribersThreadPool.getCorePoolSize() - fastSubscribersThreadPool.getActiveCount();
-        if (freeThreads > 0) {
-            for (int i = 0; i < freeThreads; ++i) {
-                PriceProcessor slowProcessor = priceProcessors.getNextProcessor();
-                if (slowProcessor == null) {
-                    return;
+    /**
+     * Called by subclasses once an idle subscription is scheduled for a delivery.
+     */
+    void dispatched(Subscription subscription) {
+        if (DELIVERY_DISPATCHED_EVENT_TYPE.isEnabled()) {
+            DeliveryDispatchedEvent event = new DeliveryDispatchedEvent();
+            event.subscriber = String.valueOf(subscription.getPriceProcessor());
+            event.tier = subscription.getRapidity().name();
+            event.priorityClass = subscription.getPriorityClass().name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Called by the watchdog once the running call of the subscription has passed its deadline. The call thread
+     * is interrupted already.
+     */
+    void overdue(Subscription subscription) {
+    }
+
+    /**
+     * Called by the delivering thread once an overdue call has finished.
+     */
+    void overdueCallFinished(Subscription subscription) {
+    }
+
+    /**
+     * Called by the delivering thread once the subscriber has moved to another tier.
+     */
+    void rapidityChanged(Subscription subscription, TaskRapidityResolver.Rapidity previous) {
+    }
+
+    /**
+     * Sets the count of delivery threads of the tier while deliveries go on.
+     *
+     * @throws IllegalStateException if the tier has no delivery threads of its own
+     */
+    void setParallelism(TaskRapidityResolver.Rapidity rapidity, int parallelism) {
+        throw new IllegalStateException("Parallelism isn't limited in this execution mode");
+    }
+
+    /**
+     * @return the count of delivery threads of the tier, threads lent for overdue calls aside, or 0 if the tier
+     * has no delivery threads of its own
+     */
+    int getParallelism(TaskRapidityResolver.Rapidity rapidity) {
+        return 0;
+    }
+
+    /**
+     * @return true if some prices aren't put to subscriptions yet
+     */
+    boolean hasUnpublishedPrices() {
+        return false;
+    }
+
+    /**
+     * @return true if the subscription has pending prices and may get them now
+     */
+    boolean isDeliverable(Subscription subscription, long nanoTime) {
+        return subscription.isActive() && subscription.getPendingPrices().size() > 0 && subscription.hasDemand()
+                && !subscription.getCircuitBreaker().isOpen(nanoTime) && !subscription.isWaitingForPredecessor();
+    }
+
+    /**
+     * Calls the subscriber with the last price of the next pending ccyPair and updates the subscriber rapidity.
+     * Batch subscribers get all pending ccyPairs in one call.
+     *
+     * @return false if there was nothing to deliver
+     */
+    boolean deliverNext(Subscription subscription) {
+        long nanoTime = System.nanoTime();
+        if (subscription.getCircuitBreaker().isOpen(nanoTime) || subscription.isWaitingForPredecessor()) {
+            return false;
+        }
+        PriceBatch priceBatch = subscription.getPriceBatch();
+        if (priceBatch != null) {
+            return deliverBatch(subscription, priceBatch, nanoTime);
+        }
+
+        int ccyPairId = subscription.getPendingPrices().peek(priceTable, nanoTime);
+        if (ccyPairId == -1) {
+            return false;
+        }
+        long pendingSince = take(subscription, ccyPairId, nanoTime);
+        PriceProcessor priceProcessor = subscription.getPriceProcessor();
+        String ccyPair = priceTable.getCcyPair(ccyPairId);
+        double rate = priceTable.getRate(ccyPairId);
+        onTaken(subscription, ccyPairId, rate, nanoTime);
+        call(subscription, ccyPair, 1, Math.max(0, nanoTime - pendingSince),
+                () -> priceProcessor.onPrice(ccyPair, rate));
+
+        return true;
+    }
+
+    private boolean deliverBatch(Subscription subscription, PriceBatch priceBatch, long nanoTime) {
+        priceBatch.clear();
+        PendingPrices pendingPrices = subscription.getPendingPrices();
+        long oldestPendingSince = nanoTime;
+        int ccyPairId;
+        while ((ccyPairId = pendingPrices.peek(priceTable, nanoTime)) != -1) {
+            oldestPendingSince = Math.min(oldestPendingSince, take(subscription, ccyPairId, nanoTime));
+            double rate = priceTable.getRate(ccyPairId);
+            onTaken(subscription, ccyPairId, rate, nanoTime);
+            priceBatch.add(priceTable.getCcyPair(ccyPairId), rate);
+        }
+        if (priceBatch.size() == 0) {
+            return false;
+        }
+        BatchPriceProcessor priceProcessor = (BatchPriceProcessor) subscription.getPriceProcessor();
+        call(subscription, null, priceBatch.size(), nanoTime - oldestPendingSince,
+                () -> priceProcessor.onPrices(priceBatch));
+
+        return true;
+    }
+
+    /**
+     * Takes the pending ccyPair of the subscription and counts its staleness breach if any.
+     *
+     * @return the time of the oldest not published tick of the ccyPair
+     */
+    private long take(Subscription subscription, int ccyPairId, long nanoTime) {
+        long pendingSince = subscription.getPendingPrices().take(ccyPairId);
+        if (priceTable.checkStaleness(ccyPairId, pendingSince, nanoTime)) {
+            subscription.getMetrics().onStalenessBreach();
+        }
+
+        return pendingSince;
+    }
+
+    private static void onTaken(Subscription subscription, int ccyPairId, double rate, long nanoTime) {
+        DeliveryFilter deliveryFilter = subscription.getDeliveryFilter();
+        if (deliveryFilter != null) {
+            deliveryFilter.onDelivered(ccyPairId, rate, nanoTime);
+        }
+    }
+
+    /**
+     * @param ccyPair the delivered ccyPair, null for a batch
+     * @param pendingNanos age of the oldest delivered tick
+     */
+    private void call(Subscription subscription, String ccyPair, int pricesCount, long pendingNanos, Runnable call) {
+        //Null unless recorded, a recording started during the call misses it
+        DeliveryCompletedEvent event = DELIVERY_COMPLETED_EVENT_TYPE.isEnabled() ? new DeliveryCompletedEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        subscription.callStarted(start);
+        try {
+            call.run();
+            subscription.getMetrics().onDelivered(pricesCount, System.nanoTime() - start);
+            subscription.getCircuitBreaker().onSuccess();
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Throwable e) {
+            //Errors and sneaky checked exceptions of a subscriber are its failures too, they must not kill
+            //the delivering thread or reach the publishing one
+            if (event != null) {
+                event.failed = true;
+            }
+            onFailure(subscription, e);
+        } finally {
+            long runTime = System.nanoTime() - start;
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.subscriber = String.valueOf(subscription.getPriceProcessor());
+                    event.tier = subscription.getRapidity().name();
+                    event.ccyPair = ccyPair;
+                    event.pricesCount = pricesCount;
+                    event.pendingNanos = pendingNanos;
+                    event.commit();
                 }
-                if (!inProgressProcessors.contains(slowProcessor)) {
-                    PriorityPrice price = priceProcessors.getNextPrice(slowProcessor);
-                    if (price == null) {
-                        return;
-                    }
-                    inProgressProcessors.add(slowProcessor);
-                    slowSubscribersThreadPool.execute(() -> {
-                        TaskRapidityResolver.Rapidity rapidity = taskRapidityResolver.executeTask(() -> {
-                            slowProcessor.onPrice(price.getCcyPair(), price.getRate());
-                        });
-                        if (rapidity.equals(TaskRapidityResolver.Rapidity.FAST)) {
-                            priceProcessors.markProcessorAsFast(slowProcessor);
-                        }
-                        inProgressProcessors.remove(slowProcessor);
-                    });
+            }
+            subscription.getMetrics().addThreadTime(runTime);
+            long deadline = subscription.getDeliveryDeadlineInNanos();
+            if (subscription.callFinished()) {
+                synchronized (subscription) {
+                    //The watchdog interrupt must not hit the next call
+                    Thread.interrupted();
+                    subscription.clearOverdue();
+                    overdueCallFinished(subscription);
+                }
+            } else if ((deadline == 0 || runTime <= deadline) && subscription.onCallInDeadline()) {
+                LOGGER.info("Subscriber " + subscription.getPriceProcessor() + " is released from quarantine");
+            }
+            TaskRapidityResolver.Rapidity previous = subscription.getRapidity();
+            if (taskRapidityResolver.resolve(subscription.getRapidityProfile(), runTime) != previous) {
+                tierChanged(subscription, previous, runTime);
+                rapidityChanged(subscription, previous);
+            }
+        }
+    }
+
+    private static void tierChanged(Subscription subscription, TaskRapidityResolver.Rapidity previous, long runTime) {
+        TierChangedEvent event = new TierChangedEvent();
+        if (event.isEnabled()) {
+            event.subscriber = String.valueOf(subscription.getPriceProcessor());
+            event.from = previous.name();
+            event.to = subscription.getRapidity().name();
+            event.runNanos = runTime;
+            event.commit();
+        }
+    }
+
+    private void onFailure(Subscription subscription, Throwable e) {
+        subscription.getMetrics().onFailure();
+        CircuitBreaker circuitBreaker = subscription.getCircuitBreaker();
+        if (circuitBreaker.getFailuresInRow() == 0) {
+            //Log only the first failure in a row, a broken subscriber may throw on every price
+            LOGGER.error("Subscriber " + subscription.getPriceProcessor() + " failed to handle prices", e);
+        }
+        if (circuitBreaker.onFailure(System.nanoTime())) {
+            LOGGER.warn("Circuit breaker of subscriber " + subscription.getPriceProcessor() + " is open after "
+                    + circuitBreaker.getFailuresInRow() + " failures in a row");
+        }
+    }
+
+    private void watch() {
+        long now = System.nanoTime();
+        for (Subscription subscription : priceProcessors.getSubscriptions()) {
+            long callStart = subscription.getCallStartNanos();
+            long deadline = subscription.getDeliveryDeadlineInNanos();
+            if (deadline > 0 && callStart != Subscription.NOT_IN_CALL && now - callStart > deadline
+                    && subscription.tryMarkOverdue()) {
+                handleOverdue(subscription, callStart);
+            }
+            DeliveryFilter deliveryFilter = subscription.getDeliveryFilter();
+            if (deliveryFilter != null) {
+                deliveryFilter.promoteDue(subscription.getPendingPrices(), priceTable, now);
+            }
+            //Wakes up subscribers whose circuit breaker or predecessor allows a delivery again
+            if (subscription.isIdle() && isDeliverable(subscription, now)) {
+                wakeUp(subscription);
+            }
+        }
+        priceProcessors.purgeUnsubscribed();
+    }
+
+    private void handleOverdue(Subscription subscription, long callStart) {
+        synchronized (subscription) {
+            if (subscription.getCallStartNanos() != callStart) {
+                //The call has just finished
+                subscription.clearOverdue();
+                return;
+            }
+            subscription.getMetrics().onDeadlineBreach();
+            LOGGER.warn("Subscriber " + subscription.getPriceProcessor() + " has passed its delivery deadline");
+            subscription.getCallThread().interrupt();
+            overdue(subscription);
+        }
+    }
+
+    private boolean awaitDrained(long deadlineNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            boolean drained = true;
+            for (Subscription subscription : priceProcessors.getSubscriptions()) {
+                if (subscription.isActive() && !subscription.getCircuitBreaker().isOpen(now)
+                        && (!subscription.isIdle()
+                        || subscription.getPendingPrices().size() > 0 && subscription.hasDemand())) {
+                    drained = false;
+                    break;
                 }
             }
+            if (drained && !hasUnpublishedPrices()) {
+                return true;
+            }
+            if (now - deadlineNanos >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
         }
     }
 
-    private void shutdownExecutorService(ExecutorService executorService) {
+    /**
+     * Shuts executor services down and waits for their tasks till the deadline, then interrupts the rest.
+     */
+    void shutdownExecutorServices(Collection<? extends ExecutorService> executorServices, long deadlineNanos) {
+        executorServices.forEach(ExecutorService::shutdown);
         try {
-            if (!executorService.awaitTermination(1, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
+            for (ExecutorService executorService : executorServices) {
+                long timeout = Math.max(0, deadlineNanos - System.nanoTime());
+                if (!executorService.awaitTermination(timeout, TimeUnit.NANOSECONDS)) {
+                    executorService.shutdownNow();
+                }
             }
         } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            executorServices.forEach(ExecutorService::shutdownNow);
+            Thread.currentThread().interrupt();
         }
     }
 }
@@ -1,66 +1,436 @@
 package ru.luxsoft.price.processor.throttler;
 
 import org.apache.log4j.Logger;
+import ru.luxsoft.price.processor.Price;
 import ru.luxsoft.price.processor.PriceProcessor;
-import ru.luxsoft.price.processor.throttler.price.PriorityPrice;
-import ru.luxsoft.price.processor.throttler.price.PriorityPriceFactory;
+import ru.luxsoft.price.processor.throttler.events.PriceIngestedEvent;
+import ru.luxsoft.price.processor.throttler.metrics.MetricsSnapshot;
+import ru.luxsoft.price.processor.throttler.price.DeliveryFilter;
+import ru.luxsoft.price.processor.throttler.price.PriceJournal;
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
+import ru.luxsoft.price.processor.throttler.price.StalenessLimits;
 import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
 
-import java.util.concurrent.Executors;
+import jdk.jfr.EventType;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * Main throttler class. To increase throughput increase the slowSubscribersParallelism and fastSubscribersParallelism
  * constructor parameters.
  * To control which subscribers slow and which fast use the slowSubscriberRunTimeLowerBoundInSeconds constructor parameter and
- * throttler will detect subscriber's rapidity.
+ * throttler will detect subscriber's rapidity. {@link PriceThrottlerConfig} also allows a medium tier with its own pool.
+ * On Java 21 or newer {@link PriceThrottlerConfig.ExecutionMode#VIRTUAL_THREADS} mode removes parallelism limits at all.
+ * Parallelism of tiers and run time lower bounds may be changed while prices go on, or left to self-tuning, see
+ * {@link PriceThrottlerConfig#setSelfTuningPeriodInMillis(long)}.
+ * Use {@link #getMetrics()} or JMX to watch the throttler and {@link #getLatest(String)} to read last prices without
+ * subscribing. Reactive consumers subscribe to {@link #asPublisher()} and take no delivery threads.
  */
 public class PriceThrottler implements PriceProcessor {
 
     private static final Logger LOGGER = Logger.getLogger(PriceThrottler.class);
 
-    private final PriceProcessorsContainer priceProcessors = new PriceProcessorsContainer();
+    //Checked before a price ingested event is allocated, there would be one per tick
+    private static final EventType PRICE_INGESTED_EVENT_TYPE = EventType.getEventType(PriceIngestedEvent.class);
+
+    private final PriceProcessorsContainer priceProcessors;
 
     private final PricePublisher pricePublisher;
 
-    private final PriorityPriceFactory priceCreator = new PriorityPriceFactory();
+    private final PriceTable priceTable;
+
+    private final TaskRapidityResolver taskRapidityResolver;
+
+    //Null if self-tuning is off
+    private final SelfTuner selfTuner;
+
+    //Null if last prices aren't journaled
+    private final PriceJournal priceJournal;
+
+    private final PriceThrottlerMetrics metrics;
+
+    //Null if onPrice publishes prices itself
+    private final PriceIngestion priceIngestion;
+
+    private final ObjectName jmxObjectName;
+
+    private final long deliveryDeadlineInNanos;
+
+    private final long shutdownTimeoutInNanos;
+
+    private final boolean snapshotOnSubscribe;
+
+    private final int ccyPairsCapacity;
+
+    //Set once shutdown starts, prices published after that are dropped
+    private volatile boolean shutdown;
 
     public PriceThrottler(int slowSubscribersParallelism, int fastSubscribersParallelism,
                           int slowSubscriberRunTimeLowerBoundInSeconds) {
-        this.pricePublisher = new PricePublisher(
-                (ThreadPoolExecutor) Executors.newFixedThreadPool(slowSubscribersParallelism),
-                (ThreadPoolExecutor) Executors.newFixedThreadPool(fastSubscribersParallelism),
-                new TaskRapidityResolver(slowSubscriberRunTimeLowerBoundInSeconds),
-                priceProcessors
-        );
+        this(new PriceThrottlerConfig()
+                .setSlowSubscribersParallelism(slowSubscribersParallelism)
+                .setFastSubscribersParallelism(fastSubscribersParallelism)
+                .setSlowSubscriberRunTimeLowerBoundInMillis(TimeUnit.SECONDS.toMillis(slowSubscriberRunTimeLowerBoundInSeconds)));
+    }
+
+    public PriceThrottler(PriceThrottlerConfig config) {
+        this.ccyPairsCapacity = config.getCcyPairsCapacity();
+        this.priceProcessors = new PriceProcessorsContainer(ccyPairsCapacity, config.isOffHeapConflation(),
+                config.getCircuitBreakerFailuresThreshold(),
+                TimeUnit.MILLISECONDS.toNanos(config.getCircuitBreakerOpenTimeInMillis()));
+        this.deliveryDeadlineInNanos = TimeUnit.MILLISECONDS.toNanos(config.getDeliveryDeadlineInMillis());
+        this.shutdownTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(config.getShutdownTimeoutInMillis());
+        this.snapshotOnSubscribe = config.isSnapshotOnSubscribe();
+        long restoreStart = System.nanoTime();
+        this.priceJournal = config.getPriceJournalPath() == null
+                ? null : PriceJournal.open(Paths.get(config.getPriceJournalPath()), ccyPairsCapacity);
+        this.priceTable = new PriceTable(ccyPairsCapacity, config.getTickRateHalfLifeInMillis(), new StalenessLimits(
+                ccyPairsCapacity, config.getMaxPriceAgeInMillis(), config.getCcyPairMaxPriceAgesInMillis()),
+                priceJournal, config.isOffHeapConflation());
+        int restoredCcyPairsCount = priceJournal == null ? 0 : priceTable.restore();
+        long restoreTime = System.nanoTime() - restoreStart;
+        boolean mediumTier = config.getMediumSubscribersParallelism() > 0;
+        long slowLowerBound = TimeUnit.MILLISECONDS.toNanos(config.getSlowSubscriberRunTimeLowerBoundInMillis());
+        long mediumLowerBound = mediumTier
+                ? TimeUnit.MILLISECONDS.toNanos(config.getMediumSubscriberRunTimeLowerBoundInMillis()) : slowLowerBound;
+        this.taskRapidityResolver = new TaskRapidityResolver(mediumLowerBound, slowLowerBound);
+        if (config.getExecutionMode() == PriceThrottlerConfig.ExecutionMode.VIRTUAL_THREADS) {
+            this.pricePublisher = new VirtualThreadPricePublisher(taskRapidityResolver, priceProcessors, priceTable);
+        } else {
+            boolean sharded = config.getExecutionMode() == PriceThrottlerConfig.ExecutionMode.SHARDS;
+            Map<TaskRapidityResolver.Rapidity, ThreadPoolExecutor> threadPools = new EnumMap<>(TaskRapidityResolver.Rapidity.class);
+            threadPools.put(TaskRapidityResolver.Rapidity.SLOW,
+                    newDeliveryThreadPool(config.getSlowSubscribersParallelism()));
+            if (!sharded) {
+                threadPools.put(TaskRapidityResolver.Rapidity.FAST,
+                        newDeliveryThreadPool(config.getFastSubscribersParallelism()));
+            }
+            if (mediumTier) {
+                threadPools.put(TaskRapidityResolver.Rapidity.MEDIUM,
+                        newDeliveryThreadPool(config.getMediumSubscribersParallelism()));
+            }
+            this.pricePublisher = sharded ? new ShardedPricePublisher(
+                    threadPools,
+                    newShardThreadPools(config.getShardsCount(), config.getFastSubscribersParallelism()),
+                    newDeliveryThreadPool(config.getQuarantineParallelism()),
+                    taskRapidityResolver,
+                    priceProcessors,
+                    priceTable
+            ) : new ThreadPoolPricePublisher(
+                    threadPools,
+                    newDeliveryThreadPool(config.getQuarantineParallelism()),
+                    taskRapidityResolver,
+                    priceProcessors,
+                    priceTable
+            );
+        }
+
+        this.priceIngestion = config.getIngestionRingBufferSize() > 0
+                ? new PriceIngestion(config.getIngestionRingBufferSize(), config.getIngestionSequencersCount(),
+                config.getIngestionWaitStrategy(), priceTable, pricePublisher)
+                : null;
         pricePublisher.start();
+        this.selfTuner = config.getSelfTuningPeriodInMillis() > 0 && pricePublisher instanceof ThreadPoolPricePublisher
+                ? new SelfTuner((ThreadPoolPricePublisher) pricePublisher, taskRapidityResolver,
+                TimeUnit.MILLISECONDS.toNanos(config.getSelfTuningPeriodInMillis()),
+                config.getSelfTuningMinParallelism(), config.getSelfTuningMaxParallelism(),
+                TimeUnit.MILLISECONDS.toNanos(config.getSelfTuningMinSlowSubscriberRunTimeLowerBoundInMillis()),
+                TimeUnit.MILLISECONDS.toNanos(config.getSelfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis()))
+                : null;
+        if (selfTuner != null) {
+            selfTuner.start();
+        }
+        this.metrics = new PriceThrottlerMetrics(priceProcessors, priceTable);
+        this.jmxObjectName = config.getJmxObjectName() == null ? null : registerMBean(config.getJmxObjectName());
 
         LOGGER.info("Price throttler started");
-        LOGGER.info("Slow subscribers parallelism " + slowSubscribersParallelism);
-        LOGGER.info("Fast subscribers parallelism " + fastSubscribersParallelism);
-        LOGGER.info("Slow subscriber run time lower bound in seconds " + slowSubscriberRunTimeLowerBoundInSeconds);
+        LOGGER.info("Execution mode " + config.getExecutionMode());
+        if (config.getExecutionMode() != PriceThrottlerConfig.ExecutionMode.VIRTUAL_THREADS) {
+            LOGGER.info("Slow subscribers parallelism " + config.getSlowSubscribersParallelism());
+            LOGGER.info("Medium subscribers parallelism " + config.getMediumSubscribersParallelism());
+            LOGGER.info("Fast subscribers parallelism " + config.getFastSubscribersParallelism());
+            LOGGER.info("Quarantine parallelism " + config.getQuarantineParallelism());
+        }
+        if (config.getExecutionMode() == PriceThrottlerConfig.ExecutionMode.SHARDS) {
+            LOGGER.info("Shards count " + config.getShardsCount());
+        }
+        LOGGER.info("Slow subscriber run time lower bound in millis " + config.getSlowSubscriberRunTimeLowerBoundInMillis());
+        if (mediumTier) {
+            LOGGER.info("Medium subscriber run time lower bound in millis " + config.getMediumSubscriberRunTimeLowerBoundInMillis());
+        }
+        if (selfTuner != null) {
+            LOGGER.info("Self-tuning period in millis " + config.getSelfTuningPeriodInMillis() + ", parallelism from "
+                    + config.getSelfTuningMinParallelism() + " to " + config.getSelfTuningMaxParallelism()
+                    + ", slow subscriber run time lower bound in millis from "
+                    + config.getSelfTuningMinSlowSubscriberRunTimeLowerBoundInMillis() + " to "
+                    + config.getSelfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis());
+        }
+        LOGGER.info("Tick rate half-life in millis " + config.getTickRateHalfLifeInMillis());
+        if (priceIngestion != null) {
+            LOGGER.info("Ingestion ring buffer size " + config.getIngestionRingBufferSize() + ", sequencers "
+                    + config.getIngestionSequencersCount() + ", wait strategy " + config.getIngestionWaitStrategy());
+        }
+        LOGGER.info("Delivery deadline in millis " + config.getDeliveryDeadlineInMillis());
+        LOGGER.info("Circuit breaker failures threshold " + config.getCircuitBreakerFailuresThreshold()
+                + ", open time in millis " + config.getCircuitBreakerOpenTimeInMillis());
+        LOGGER.info("Snapshot on subscribe " + config.isSnapshotOnSubscribe());
+        LOGGER.info("CcyPairs capacity " + ccyPairsCapacity + ", off-heap conflation " + config.isOffHeapConflation());
+        if (priceJournal != null) {
+            LOGGER.info("Price journal " + config.getPriceJournalPath() + ", restored " + restoredCcyPairsCount
+                    + " ccyPairs in " + TimeUnit.NANOSECONDS.toMillis(restoreTime) + " millis, torn records "
+                    + priceJournal.getTornRecordsCount());
+        }
+        LOGGER.info("Max price age in millis " + config.getMaxPriceAgeInMillis() + ", per ccyPair "
+                + config.getCcyPairMaxPriceAgesInMillis());
     }
 
     public void onPrice(String ccyPair, double rate) {
-        PriorityPrice priorityPrice = priceCreator.createNewPriceOrChangePriority(ccyPair, rate);
-        priceProcessors.addOrReplacePrice(priorityPrice);
+        if (shutdown) {
+            return;
+        }
+        long nanoTime = System.nanoTime();
+        if (PRICE_INGESTED_EVENT_TYPE.isEnabled()) {
+            PriceIngestedEvent event = new PriceIngestedEvent();
+            event.ccyPair = ccyPair;
+            event.rate = rate;
+            event.commit();
+        }
+        if (priceIngestion != null) {
+            priceIngestion.offer(priceTable.getCcyPairRegistry().getOrRegister(ccyPair), rate, nanoTime);
+        } else {
+            pricePublisher.publish(priceTable.update(ccyPair, rate, nanoTime), nanoTime);
+        }
     }
 
     public void subscribe(PriceProcessor priceProcessor) {
-        priceProcessors.addProcessor(priceProcessor);
+        subscribe(priceProcessor, new SubscriberOptions());
+    }
+
+    /**
+     * Subscribes the processor with its own delivery deadline instead of the configured one, zero means
+     * no deadline.
+     */
+    public void subscribe(PriceProcessor priceProcessor, long deliveryDeadlineInMillis) {
+        subscribe(priceProcessor, new SubscriberOptions().setDeliveryDeadlineInMillis(deliveryDeadlineInMillis));
+    }
+
+    /**
+     * Subscribes the processor with its own settings, a delivery filter for example.
+     */
+    public void subscribe(PriceProcessor priceProcessor, SubscriberOptions options) {
+        long deadline = options.getDeliveryDeadlineInMillis() < 0
+                ? deliveryDeadlineInNanos : TimeUnit.MILLISECONDS.toNanos(options.getDeliveryDeadlineInMillis());
+        Subscription subscription = addSubscription(priceProcessor, options, deadline);
+        if (subscription != null) {
+            pricePublisher.subscribed(subscription);
+        }
+    }
+
+    public Flow.Publisher<Price> asPublisher() {
+        return asPublisher(new SubscriberOptions());
+    }
+
+    /**
+     * Every subscriber of the publisher gets the last price of every ccyPair changed since its previous onNext,
+     * rare ccyPairs first, as many prices as it has requested. Prices which come with no demand conflate, they
+     * aren't buffered. onNext is called on the thread which publishes a price or requests more, so it must not
+     * block. The delivery deadline of the options isn't used. Subscribers get onComplete on shutdown.
+     */
+    public Flow.Publisher<Price> asPublisher(SubscriberOptions options) {
+        return subscriber -> {
+            Objects.requireNonNull(subscriber);
+            FlowSubscription flowSubscription = new FlowSubscription(subscriber, this, pricePublisher);
+            //A deadline would interrupt threads which only lend themselves to deliveries
+            Subscription subscription = addSubscription(flowSubscription, options, 0);
+            flowSubscription.start(subscription);
+            pricePublisher.subscribed(subscription);
+        };
+    }
+
+    /**
+     * @return the new subscription or null if the processor is already subscribed
+     */
+    private Subscription addSubscription(PriceProcessor priceProcessor, SubscriberOptions options, long deadline) {
+        DeliveryFilter deliveryFilter = options.hasDeliveryFilter()
+                ? new DeliveryFilter(ccyPairsCapacity, options.getMinAbsoluteChange(),
+                options.getCcyPairMinAbsoluteChanges(), options.getMinRelativeChange(),
+                options.getMinIntervalInMillis(), options.getFinalValueDelayInMillis())
+                : null;
+        Subscription subscription = priceProcessors.addProcessor(priceProcessor, deadline, deliveryFilter,
+                options.getPriorityClass(), options.getWeight());
+        if (subscription != null && snapshotOnSubscribe) {
+            subscription.getPendingPrices().putAll(priceTable, System.nanoTime());
+        }
+
+        return subscription;
     }
 
     public void unsubscribe(PriceProcessor priceProcessor) {
-        priceProcessors.removeProcessor(priceProcessor);
+        Subscription subscription = priceProcessors.removeProcessor(priceProcessor);
+        if (subscription != null) {
+            pricePublisher.unsubscribed(subscription);
+        }
+    }
+
+    /**
+     * Reads the last rate of the ccyPair without subscribing. Doesn't allocate anything.
+     *
+     * @return the last rate or {@link Double#NaN} if the ccyPair hasn't ticked yet
+     */
+    public double getLatest(String ccyPair) {
+        return priceTable.getLatest(ccyPair);
     }
 
-    public void printStats() {
-        priceProcessors.printStats();
-        pricePublisher.printStats();
+    public MetricsSnapshot getMetrics() {
+        return metrics.getMetrics();
     }
 
+    /**
+     * Resizes the slow tier pool while deliveries go on. Threads above the new size finish their running calls and
+     * stop. Self-tuning, if it is on, goes on from the new size.
+     *
+     * @throws IllegalStateException in {@link PriceThrottlerConfig.ExecutionMode#VIRTUAL_THREADS} mode
+     */
+    public void setSlowSubscribersParallelism(int slowSubscribersParallelism) {
+        pricePublisher.setParallelism(TaskRapidityResolver.Rapidity.SLOW, slowSubscribersParallelism);
+    }
+
+    /**
+     * @return 0 in {@link PriceThrottlerConfig.ExecutionMode#VIRTUAL_THREADS} mode
+     */
+    public int getSlowSubscribersParallelism() {
+        return pricePublisher.getParallelism(TaskRapidityResolver.Rapidity.SLOW);
+    }
+
+    /**
+     * See {@link #setSlowSubscribersParallelism(int)}.
+     *
+     * @throws IllegalStateException if there is no medium tier
+     */
+    public void setMediumSubscribersParallelism(int mediumSubscribersParallelism) {
+        pricePublisher.setParallelism(TaskRapidityResolver.Rapidity.MEDIUM, mediumSubscribersParallelism);
+    }
+
+    /**
+     * @return 0 if there is no medium tier
+     */
+    public int getMediumSubscribersParallelism() {
+        return pricePublisher.getParallelism(TaskRapidityResolver.Rapidity.MEDIUM);
+    }
+
+    /**
+     * See {@link #setSlowSubscribersParallelism(int)}. In {@link PriceThrottlerConfig.ExecutionMode#SHARDS} mode
+     * the parallelism is split between shards.
+     */
+    public void setFastSubscribersParallelism(int fastSubscribersParallelism) {
+        pricePublisher.setParallelism(TaskRapidityResolver.Rapidity.FAST, fastSubscribersParallelism);
+    }
+
+    public int getFastSubscribersParallelism() {
+        return pricePublisher.getParallelism(TaskRapidityResolver.Rapidity.FAST);
+    }
+
+    /**
+     * Moves the bound between slow subscribers and faster ones. Subscribers move to their new tiers on their next
+     * calls, running calls aren't affected.
+     *
+     * @throws IllegalArgumentException if the bound isn't positive or is less than the medium subscriber one
+     */
+    public void setSlowSubscriberRunTimeLowerBoundInMillis(long slowSubscriberRunTimeLowerBoundInMillis) {
+        taskRapidityResolver.setSlowTaskLowerBoundInNanos(
+                TimeUnit.MILLISECONDS.toNanos(slowSubscriberRunTimeLowerBoundInMillis));
+    }
+
+    public long getSlowSubscriberRunTimeLowerBoundInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(taskRapidityResolver.getSlowTaskLowerBoundInNanos());
+    }
+
+    /**
+     * See {@link #setSlowSubscriberRunTimeLowerBoundInMillis(long)}.
+     *
+     * @throws IllegalStateException if there is no medium tier
+     */
+    public void setMediumSubscriberRunTimeLowerBoundInMillis(long mediumSubscriberRunTimeLowerBoundInMillis) {
+        taskRapidityResolver.setMediumTaskLowerBoundInNanos(
+                TimeUnit.MILLISECONDS.toNanos(mediumSubscriberRunTimeLowerBoundInMillis));
+    }
+
+    /**
+     * @return the slow subscriber bound if there is no medium tier
+     */
+    public long getMediumSubscriberRunTimeLowerBoundInMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(taskRapidityResolver.getMediumTaskLowerBoundInNanos());
+    }
+
+    /**
+     * Stops taking prices, gives subscribers the configured shutdown timeout to receive pending prices and stops
+     * delivery threads. Reactive subscribers get pending prices they have demand for, then onComplete.
+     * Prices published after shutdown has started are dropped.
+     */
     public void shutdown() {
-        pricePublisher.shutdown();
+        shutdown = true;
+        if (selfTuner != null) {
+            selfTuner.stop();
+        }
+        long deadline = System.nanoTime() + shutdownTimeoutInNanos;
+        if (priceIngestion != null) {
+            priceIngestion.shutdown(deadline);
+        }
+        pricePublisher.shutdown(Math.max(0, deadline - System.nanoTime()));
+        for (Subscription subscription : priceProcessors.getSubscriptions()) {
+            if (subscription.getPriceProcessor() instanceof FlowSubscription) {
+                ((FlowSubscription) subscription.getPriceProcessor()).complete(deadline);
+            }
+        }
+        if (priceJournal != null) {
+            priceJournal.close();
+        }
+        if (jmxObjectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(jmxObjectName);
+            } catch (JMException e) {
+                LOGGER.warn("Can't unregister " + jmxObjectName, e);
+            }
+        }
+    }
+
+    /**
+     * The work queue of a delivery pool is the ready queue of its subscribers, so it shares turns between
+     * priority classes.
+     */
+    private static ThreadPoolExecutor newDeliveryThreadPool(int parallelism) {
+        return new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS, new ReadyQueue());
+    }
+
+    private static List<ThreadPoolExecutor> newShardThreadPools(int shardsCount, int fastSubscribersParallelism) {
+        List<ThreadPoolExecutor> threadPools = new ArrayList<>(shardsCount);
+        for (int i = 0; i < shardsCount; ++i) {
+            threadPools.add(newDeliveryThreadPool(Math.max(1, fastSubscribersParallelism / shardsCount)));
+        }
+
+        return threadPools;
+    }
+
+    private ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Can't register price throttler MBean " + name, e);
+        }
     }
 }
@@ -0,0 +1,502 @@
+package ru.luxsoft.price.processor.throttler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * This class holds {@link PriceThrottler} settings.
+ */
+public class PriceThrottlerConfig {
+
+    private ExecutionMode executionMode = ExecutionMode.THREAD_POOLS;
+
+    private int slowSubscribersParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private int fastSubscribersParallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private int mediumSubscribersParallelism = 0;
+
+    private long slowSubscriberRunTimeLowerBoundInMillis = 1000;
+
+    private long mediumSubscriberRunTimeLowerBoundInMillis = 100;
+
+    private long tickRateHalfLifeInMillis = 60_000;
+
+    private String jmxObjectName;
+
+    private long maxPriceAgeInMillis = 0;
+
+    private final Map<String, Long> ccyPairMaxPriceAgesInMillis = new HashMap<>();
+
+    private int ingestionRingBufferSize = 0;
+
+    private int ingestionSequencersCount = 1;
+
+    private WaitStrategy ingestionWaitStrategy = WaitStrategy.PARK;
+
+    private long deliveryDeadlineInMillis = 0;
+
+    private int quarantineParallelism = 1;
+
+    private int circuitBreakerFailuresThreshold = 5;
+
+    private long circuitBreakerOpenTimeInMillis = 10_000;
+
+    private long shutdownTimeoutInMillis = 5_000;
+
+    private boolean snapshotOnSubscribe = true;
+
+    private int shardsCount = Runtime.getRuntime().availableProcessors();
+
+    private String priceJournalPath;
+
+    private int ccyPairsCapacity = 200;
+
+    private boolean offHeapConflation = false;
+
+    private long selfTuningPeriodInMillis = 0;
+
+    private int selfTuningMinParallelism = 1;
+
+    private int selfTuningMaxParallelism = Runtime.getRuntime().availableProcessors();
+
+    private long selfTuningMinSlowSubscriberRunTimeLowerBoundInMillis = 0;
+
+    private long selfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis = 0;
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public PriceThrottlerConfig setExecutionMode(ExecutionMode executionMode) {
+        Objects.requireNonNull(executionMode);
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    public int getSlowSubscribersParallelism() {
+        return slowSubscribersParallelism;
+    }
+
+    /**
+     * Not used in {@link ExecutionMode#VIRTUAL_THREADS} mode.
+     */
+    public PriceThrottlerConfig setSlowSubscribersParallelism(int slowSubscribersParallelism) {
+        checkPositive(slowSubscribersParallelism, "Slow subscribers parallelism");
+        this.slowSubscribersParallelism = slowSubscribersParallelism;
+        return this;
+    }
+
+    public int getFastSubscribersParallelism() {
+        return fastSubscribersParallelism;
+    }
+
+    /**
+     * Not used in {@link ExecutionMode#VIRTUAL_THREADS} mode. In {@link ExecutionMode#SHARDS} mode it is split
+     * between shards.
+     */
+    public PriceThrottlerConfig setFastSubscribersParallelism(int fastSubscribersParallelism) {
+        checkPositive(fastSubscribersParallelism, "Fast subscribers parallelism");
+        this.fastSubscribersParallelism = fastSubscribersParallelism;
+        return this;
+    }
+
+    public int getMediumSubscribersParallelism() {
+        return mediumSubscribersParallelism;
+    }
+
+    /**
+     * Zero means there is no medium tier, subscribers are either fast or slow. Not used in
+     * {@link ExecutionMode#VIRTUAL_THREADS} mode.
+     */
+    public PriceThrottlerConfig setMediumSubscribersParallelism(int mediumSubscribersParallelism) {
+        checkNotNegative(mediumSubscribersParallelism, "Medium subscribers parallelism");
+        this.mediumSubscribersParallelism = mediumSubscribersParallelism;
+        return this;
+    }
+
+    public long getSlowSubscriberRunTimeLowerBoundInMillis() {
+        return slowSubscriberRunTimeLowerBoundInMillis;
+    }
+
+    public PriceThrottlerConfig setSlowSubscriberRunTimeLowerBoundInMillis(
+            long slowSubscriberRunTimeLowerBoundInMillis) {
+        checkPositive(slowSubscriberRunTimeLowerBoundInMillis, "Slow subscriber run time lower bound");
+        this.slowSubscriberRunTimeLowerBoundInMillis = slowSubscriberRunTimeLowerBoundInMillis;
+        return this;
+    }
+
+    public long getMediumSubscriberRunTimeLowerBoundInMillis() {
+        return mediumSubscriberRunTimeLowerBoundInMillis;
+    }
+
+    /**
+     * Used only if the medium tier is on, see {@link #setMediumSubscribersParallelism(int)}.
+     */
+    public PriceThrottlerConfig setMediumSubscriberRunTimeLowerBoundInMillis(
+            long mediumSubscriberRunTimeLowerBoundInMillis) {
+        checkPositive(mediumSubscriberRunTimeLowerBoundInMillis, "Medium subscriber run time lower bound");
+        this.mediumSubscriberRunTimeLowerBoundInMillis = mediumSubscriberRunTimeLowerBoundInMillis;
+        return this;
+    }
+
+    public long getTickRateHalfLifeInMillis() {
+        return tickRateHalfLifeInMillis;
+    }
+
+    /**
+     * How fast ccyPairs tick rates forget old ticks. The shorter the half-life, the faster a ccyPair which has
+     * become rare is published first again. Must be positive.
+     */
+    public PriceThrottlerConfig setTickRateHalfLifeInMillis(long tickRateHalfLifeInMillis) {
+        checkPositive(tickRateHalfLifeInMillis, "Tick rate half-life");
+        this.tickRateHalfLifeInMillis = tickRateHalfLifeInMillis;
+        return this;
+    }
+
+    public String getJmxObjectName() {
+        return jmxObjectName;
+    }
+
+    /**
+     * Registers {@link PriceThrottlerMXBean} under this name, e.g. "ru.luxsoft.price:type=PriceThrottler,name=main".
+     * Null, the default, means no JMX registration.
+     */
+    public PriceThrottlerConfig setJmxObjectName(String jmxObjectName) {
+        this.jmxObjectName = jmxObjectName;
+        return this;
+    }
+
+    public long getMaxPriceAgeInMillis() {
+        return maxPriceAgeInMillis;
+    }
+
+    /**
+     * A price not published to a subscriber for longer than this is published before any other price of that
+     * subscriber. Zero, the default, means no limit.
+     */
+    public PriceThrottlerConfig setMaxPriceAgeInMillis(long maxPriceAgeInMillis) {
+        checkNotNegative(maxPriceAgeInMillis, "Max price age");
+        this.maxPriceAgeInMillis = maxPriceAgeInMillis;
+        return this;
+    }
+
+    public Map<String, Long> getCcyPairMaxPriceAgesInMillis() {
+        return ccyPairMaxPriceAgesInMillis;
+    }
+
+    /**
+     * Same as {@link #setMaxPriceAgeInMillis(long)} for one ccyPair.
+     */
+    public PriceThrottlerConfig setMaxPriceAgeInMillis(String ccyPair, long maxPriceAgeInMillis) {
+        Objects.requireNonNull(ccyPair);
+        checkNotNegative(maxPriceAgeInMillis, "Max price age");
+        ccyPairMaxPriceAgesInMillis.put(ccyPair, maxPriceAgeInMillis);
+        return this;
+    }
+
+    public int getIngestionRingBufferSize() {
+        return ingestionRingBufferSize;
+    }
+
+    /**
+     * Turns the ingestion ring buffer on: onPrice only puts the price to the ring buffer and sequencer threads
+     * publish it. Must be a power of two. Zero, the default, means onPrice publishes prices itself.
+     */
+    public PriceThrottlerConfig setIngestionRingBufferSize(int ingestionRingBufferSize) {
+        if (ingestionRingBufferSize != 0 && Integer.bitCount(ingestionRingBufferSize) != 1) {
+            throw new IllegalArgumentException("Ingestion ring buffer size must be zero or a power of two: "
+                    + ingestionRingBufferSize);
+        }
+        this.ingestionRingBufferSize = ingestionRingBufferSize;
+        return this;
+    }
+
+    public int getIngestionSequencersCount() {
+        return ingestionSequencersCount;
+    }
+
+    /**
+     * Used only if the ingestion ring buffer is on.
+     */
+    public PriceThrottlerConfig setIngestionSequencersCount(int ingestionSequencersCount) {
+        checkPositive(ingestionSequencersCount, "Ingestion sequencers count");
+        this.ingestionSequencersCount = ingestionSequencersCount;
+        return this;
+    }
+
+    public WaitStrategy getIngestionWaitStrategy() {
+        return ingestionWaitStrategy;
+    }
+
+    /**
+     * How sequencers wait for new prices, {@link WaitStrategy#PARK} by default. Used only if the ingestion ring buffer
+     * is on.
+     */
+    public PriceThrottlerConfig setIngestionWaitStrategy(WaitStrategy ingestionWaitStrategy) {
+        Objects.requireNonNull(ingestionWaitStrategy);
+        this.ingestionWaitStrategy = ingestionWaitStrategy;
+        return this;
+    }
+
+    public long getDeliveryDeadlineInMillis() {
+        return deliveryDeadlineInMillis;
+    }
+
+    /**
+     * How long one subscriber call may run. An overdue call is interrupted, and unless in
+     * {@link ExecutionMode#VIRTUAL_THREADS} mode the subscriber is quarantined. Zero, the default, means
+     * no deadline. Can be overridden per subscriber, see {@link SubscriberOptions#setDeliveryDeadlineInMillis(long)}.
+     */
+    public PriceThrottlerConfig setDeliveryDeadlineInMillis(long deliveryDeadlineInMillis) {
+        checkNotNegative(deliveryDeadlineInMillis, "Delivery deadline");
+        this.deliveryDeadlineInMillis = deliveryDeadlineInMillis;
+        return this;
+    }
+
+    public int getQuarantineParallelism() {
+        return quarantineParallelism;
+    }
+
+    /**
+     * Threads of the pool shared by subscribers which have passed their delivery deadline. Not used in
+     * {@link ExecutionMode#VIRTUAL_THREADS} mode.
+     */
+    public PriceThrottlerConfig setQuarantineParallelism(int quarantineParallelism) {
+        checkPositive(quarantineParallelism, "Quarantine parallelism");
+        this.quarantineParallelism = quarantineParallelism;
+        return this;
+    }
+
+    public int getCircuitBreakerFailuresThreshold() {
+        return circuitBreakerFailuresThreshold;
+    }
+
+    /**
+     * Count of subscriber failures in a row which stops deliveries to the subscriber for the circuit breaker open
+     * time. Zero means subscribers are never stopped.
+     */
+    public PriceThrottlerConfig setCircuitBreakerFailuresThreshold(int circuitBreakerFailuresThreshold) {
+        checkNotNegative(circuitBreakerFailuresThreshold, "Circuit breaker failures threshold");
+        this.circuitBreakerFailuresThreshold = circuitBreakerFailuresThreshold;
+        return this;
+    }
+
+    public long getCircuitBreakerOpenTimeInMillis() {
+        return circuitBreakerOpenTimeInMillis;
+    }
+
+    public PriceThrottlerConfig setCircuitBreakerOpenTimeInMillis(long circuitBreakerOpenTimeInMillis) {
+        checkNotNegative(circuitBreakerOpenTimeInMillis, "Circuit breaker open time");
+        this.circuitBreakerOpenTimeInMillis = circuitBreakerOpenTimeInMillis;
+        return this;
+    }
+
+    public long getShutdownTimeoutInMillis() {
+        return shutdownTimeoutInMillis;
+    }
+
+    /**
+     * How long shutdown waits for subscribers to receive pending prices and finish running calls.
+     */
+    public PriceThrottlerConfig setShutdownTimeoutInMillis(long shutdownTimeoutInMillis) {
+        checkNotNegative(shutdownTimeoutInMillis, "Shutdown timeout");
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+        return this;
+    }
+
+    public boolean isSnapshotOnSubscribe() {
+        return snapshotOnSubscribe;
+    }
+
+    /**
+     * If true, the default, a new subscriber gets the last price of every ccyPair at once. Otherwise it gets
+     * a ccyPair price on its next tick only.
+     */
+    public PriceThrottlerConfig setSnapshotOnSubscribe(boolean snapshotOnSubscribe) {
+        this.snapshotOnSubscribe = snapshotOnSubscribe;
+        return this;
+    }
+
+    public int getShardsCount() {
+        return shardsCount;
+    }
+
+    /**
+     * Used in {@link ExecutionMode#SHARDS} mode only. Every shard has a dispatcher thread and
+     * fastSubscribersParallelism / shardsCount, at least one, threads for fast subscribers.
+     */
+    public PriceThrottlerConfig setShardsCount(int shardsCount) {
+        checkPositive(shardsCount, "Shards count");
+        this.shardsCount = shardsCount;
+        return this;
+    }
+
+    public String getPriceJournalPath() {
+        return priceJournalPath;
+    }
+
+    /**
+     * Turns the last-price journal on: last prices and tick rates are kept in this memory-mapped file and restored
+     * from it on start. Null, the default, means no journal.
+     */
+    public PriceThrottlerConfig setPriceJournalPath(String priceJournalPath) {
+        this.priceJournalPath = priceJournalPath;
+        return this;
+    }
+
+    public int getCcyPairsCapacity() {
+        return ccyPairsCapacity;
+    }
+
+    /**
+     * Max count of distinct ccyPairs, 200 by default. A price of a ccyPair beyond it is rejected with
+     * an {@link IllegalStateException}.
+     */
+    public PriceThrottlerConfig setCcyPairsCapacity(int ccyPairsCapacity) {
+        checkPositive(ccyPairsCapacity, "CcyPairs capacity");
+        this.ccyPairsCapacity = ccyPairsCapacity;
+        return this;
+    }
+
+    public boolean isOffHeapConflation() {
+        return offHeapConflation;
+    }
+
+    /**
+     * If true, the price table and pending prices of every subscriber are kept in native memory, so the heap and
+     * collector pauses don't grow with counts of subscribers and ccyPairs. False by default.
+     */
+    public PriceThrottlerConfig setOffHeapConflation(boolean offHeapConflation) {
+        this.offHeapConflation = offHeapConflation;
+        return this;
+    }
+
+    public long getSelfTuningPeriodInMillis() {
+        return selfTuningPeriodInMillis;
+    }
+
+    /**
+     * If positive, every period tier pools grow when subscribers wait for threads and shrink when threads idle,
+     * within selfTuningMinParallelism and selfTuningMaxParallelism. Zero, the default, turns self-tuning off.
+     * Not used in {@link ExecutionMode#VIRTUAL_THREADS} mode.
+     */
+    public PriceThrottlerConfig setSelfTuningPeriodInMillis(long selfTuningPeriodInMillis) {
+        checkNotNegative(selfTuningPeriodInMillis, "Self-tuning period");
+        this.selfTuningPeriodInMillis = selfTuningPeriodInMillis;
+        return this;
+    }
+
+    public int getSelfTuningMinParallelism() {
+        return selfTuningMinParallelism;
+    }
+
+    /**
+     * Self-tuning doesn't shrink a tier below it, one by default.
+     */
+    public PriceThrottlerConfig setSelfTuningMinParallelism(int selfTuningMinParallelism) {
+        checkPositive(selfTuningMinParallelism, "Self-tuning min parallelism");
+        this.selfTuningMinParallelism = selfTuningMinParallelism;
+        return this;
+    }
+
+    public int getSelfTuningMaxParallelism() {
+        return selfTuningMaxParallelism;
+    }
+
+    /**
+     * Self-tuning doesn't grow a tier above it, the count of processors by default.
+     */
+    public PriceThrottlerConfig setSelfTuningMaxParallelism(int selfTuningMaxParallelism) {
+        checkPositive(selfTuningMaxParallelism, "Self-tuning max parallelism");
+        this.selfTuningMaxParallelism = selfTuningMaxParallelism;
+        return this;
+    }
+
+    public long getSelfTuningMinSlowSubscriberRunTimeLowerBoundInMillis() {
+        return selfTuningMinSlowSubscriberRunTimeLowerBoundInMillis;
+    }
+
+    /**
+     * With selfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis bounds the slow subscriber run time lower bound
+     * which self-tuning moves between them. The bound goes down when the tier next to the slow one is saturated and
+     * the slow one isn't, and up in the opposite case. The bound isn't tuned unless the min is less than the max,
+     * by default it isn't.
+     */
+    public PriceThrottlerConfig setSelfTuningMinSlowSubscriberRunTimeLowerBoundInMillis(
+            long selfTuningMinSlowSubscriberRunTimeLowerBoundInMillis) {
+        checkNotNegative(selfTuningMinSlowSubscriberRunTimeLowerBoundInMillis,
+                "Self-tuning min slow subscriber run time lower bound");
+        this.selfTuningMinSlowSubscriberRunTimeLowerBoundInMillis =
+                selfTuningMinSlowSubscriberRunTimeLowerBoundInMillis;
+        return this;
+    }
+
+    public long getSelfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis() {
+        return selfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis;
+    }
+
+    /**
+     * See {@link #setSelfTuningMinSlowSubscriberRunTimeLowerBoundInMillis(long)}.
+     */
+    public PriceThrottlerConfig setSelfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis(
+            long selfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis) {
+        checkNotNegative(selfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis,
+                "Self-tuning max slow subscriber run time lower bound");
+        this.selfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis =
+                selfTuningMaxSlowSubscriberRunTimeLowerBoundInMillis;
+        return this;
+    }
+
+    private static void checkPositive(long value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        }
+    }
+
+    private static void checkNotNegative(long value, String name) {
+        if (value < 0) {
+            throw new IllegalArgumentException(name + " must not be negative: " + value);
+        }
+    }
+
+    public enum WaitStrategy {
+
+        /**
+         * Lowest latency, burns a core per sequencer. For sequencers on dedicated cores only
+         */
+        BUSY_SPIN,
+
+        /**
+         * Spins a little, then yields the core to other threads. Still keeps a core busy while there are no prices,
+         * so for sequencers on dedicated cores only
+         */
+        YIELD,
+
+        /**
+         * Spins a little, then parks for 50 microseconds, twice as long every next time up to a millisecond. Lowest
+         * CPU usage, highest latency after a quiet period
+         */
+        PARK
+    }
+
+    public enum ExecutionMode {
+
+        /**
+         * Slow and fast subscribers share two fixed thread pools. Works on any supported runtime.
+         */
+        THREAD_POOLS,
+
+        /**
+         * Every subscriber has its own virtual thread. Requires Java 21 or newer.
+         */
+        VIRTUAL_THREADS,
+
+        /**
+         * Subscribers are partitioned across shards, every shard fans prices out to its own subscribers. Meant for
+         * many subscribers on many cores, compare it with THREAD_POOLS on the target host by ShardedFanOutBenchmark.
+         */
+        SHARDS
+    }
+}
@@ -0,0 +1,16 @@
+package ru.luxsoft.price.processor.throttler;
+
+import ru.luxsoft.price.processor.throttler.metrics.MetricsSnapshot;
+
+/**
+ * JMX view of {@link PriceThrottler} metrics. Registered if {@link PriceThrottlerConfig#setJmxObjectName(String)}
+ * is set.
+ */
+public interface PriceThrottlerMXBean {
+
+    int getSubscribersCount();
+
+    int getCcyPairsCount();
+
+    MetricsSnapshot getMetrics();
+}
@@ -0,0 +1,79 @@
+package ru.luxsoft.price.processor.throttler;
+
+import ru.luxsoft.price.processor.throttler.metrics.MetricsSnapshot;
+import ru.luxsoft.price.processor.throttler.metrics.SubscriberMetrics;
+import ru.luxsoft.price.processor.throttler.price.PendingPrices;
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class builds metrics snapshots. All the work is done here on reading, the hot path only bumps counters.
+ */
+class PriceThrottlerMetrics implements PriceThrottlerMXBean {
+
+    private final PriceProcessorsContainer priceProcessors;
+
+    private final PriceTable priceTable;
+
+    PriceThrottlerMetrics(PriceProcessorsContainer priceProcessors, PriceTable priceTable) {
+        this.priceProcessors = priceProcessors;
+        this.priceTable = priceTable;
+    }
+
+    @Override
+    public int getSubscribersCount() {
+        return priceProcessors.getSubscriptions().length;
+    }
+
+    @Override
+    public int getCcyPairsCount() {
+        return priceTable.getCcyPairRegistry().size();
+    }
+
+    @Override
+    public MetricsSnapshot getMetrics() {
+        long now = System.nanoTime();
+        Subscription[] subscriptions = priceProcessors.getSubscriptions();
+
+        List<MetricsSnapshot.SubscriberStats> subscribers = new ArrayList<>(subscriptions.length);
+        for (Subscription subscription : subscriptions) {
+            SubscriberMetrics metrics = subscription.getMetrics();
+            subscribers.add(new MetricsSnapshot.SubscriberStats(
+                    String.valueOf(subscription.getPriceProcessor()),
+                    subscription.getRapidity().name(),
+                    subscription.getPriorityClass().name(),
+                    subscription.getWeight(),
+                    metrics.getDelivered(),
+                    metrics.getConflated(),
+                    metrics.getFiltered(),
+                    subscription.getPendingPrices().size(),
+                    metrics.getStalenessBreaches(),
+                    metrics.getFailures(),
+                    metrics.getDeadlineBreaches(),
+                    subscription.isQuarantined(),
+                    subscription.getCircuitBreaker().isOpen(now),
+                    metrics.getThreadTimeInNanos(),
+                    metrics.getOnPriceLatency().snapshot()
+            ));
+        }
+
+        int ccyPairsCount = priceTable.getCcyPairRegistry().size();
+        List<MetricsSnapshot.CcyPairStats> ccyPairs = new ArrayList<>(ccyPairsCount);
+        for (int id = 0; id < ccyPairsCount; ++id) {
+            long worstStaleness = 0;
+            for (Subscription subscription : subscriptions) {
+                long pendingSince = subscription.getPendingPrices().getPendingSince(id);
+                if (pendingSince != PendingPrices.EMPTY) {
+                    worstStaleness = Math.max(worstStaleness, now - pendingSince);
+                }
+            }
+            ccyPairs.add(new MetricsSnapshot.CcyPairStats(priceTable.getCcyPair(id), priceTable.getSequence(id),
+                    priceTable.getTickRate(id), worstStaleness, priceTable.getMaxAgeInNanos(id),
+                    priceTable.getStalenessBreaches(id)));
+        }
+
+        return new MetricsSnapshot(subscribers, ccyPairs);
+    }
+}
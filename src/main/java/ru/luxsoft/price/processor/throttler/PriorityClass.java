@@ -0,0 +1,31 @@
+package ru.luxsoft.price.processor.throttler;
+
+/**
+ * Priority class of a subscriber, see {@link SubscriberOptions#setPriorityClass(PriorityClass)}. When subscribers
+ * of several classes wait for a thread of the same pool, each class gets turns in proportion to its weight. So
+ * higher classes are delivered to sooner and more often, and lower classes still get their share.
+ */
+public enum PriorityClass {
+
+    /**
+     * Trading screens and other subscribers which must beat the rest
+     */
+    HIGH(4),
+
+    NORMAL(2),
+
+    /**
+     * Audit feeds, reports and other background subscribers
+     */
+    LOW(1);
+
+    private final int weight;
+
+    PriorityClass(int weight) {
+        this.weight = weight;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
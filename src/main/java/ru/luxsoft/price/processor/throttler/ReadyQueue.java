@@ -0,0 +1,228 @@
+package ru.luxsoft.price.processor.throttler;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is the work queue of a delivery pool which shares threads between {@link PriorityClass}es by their
+ * weights. We need this because a plain FIFO queue gives a turn of an audit feed the same chance as a turn of
+ * a trading screen.
+ *
+ * Every class has its own lock-free FIFO queue. A free thread takes the head of the class with the smallest pass,
+ * and the pass of the class grows by one over its weight (stride scheduling). So while several classes wait, each
+ * gets turns in proportion to its weight and no class starves. A class which has been empty starts from the current
+ * pass, so it can't take a burst of turns for the time it has waited for nothing. The queue never holds a thread
+ * back while any task waits.
+ *
+ * Passes are fixed point longs, so a thread takes its turn with a CAS on the pass of the class, and taking threads
+ * don't share a lock. Threads racing for a turn may advance passes in a slightly different order than a lock would,
+ * which shifts turns by one stride at most. A thread which has got a permit scans classes again until it finds
+ * a task, since a scan racing with other threads may see every class empty, so no task is left without a permit.
+ */
+class ReadyQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    /**
+     * A task of a subscriber with a priority class. Other tasks are {@link PriorityClass#NORMAL}.
+     */
+    interface Prioritized {
+
+        PriorityClass getPriorityClass();
+    }
+
+    private static final PriorityClass[] PRIORITY_CLASSES = PriorityClass.values();
+
+    //Pass of one turn of a class of weight 1, divisible by every weight
+    private static final long PASS_UNIT = 1L << 20;
+
+    private final List<Queue<Runnable>> queues = new ArrayList<>(PRIORITY_CLASSES.length);
+
+    private final AtomicLongArray passes = new AtomicLongArray(PRIORITY_CLASSES.length);
+
+    //Pass of the last turn taken
+    private final AtomicLong currentPass = new AtomicLong();
+
+    //Count of tasks, so taking threads block without a lock
+    private final Semaphore tasks = new Semaphore(0);
+
+    //Tasks removed while every permit was taken, a thread holding a permit takes one of these instead of a task
+    private final AtomicInteger removedWithoutPermit = new AtomicInteger();
+
+    ReadyQueue() {
+        for (int i = 0; i < PRIORITY_CLASSES.length; ++i) {
+            queues.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        PriorityClass priorityClass = task instanceof Prioritized
+                ? ((Prioritized) task).getPriorityClass() : PriorityClass.NORMAL;
+        queues.get(priorityClass.ordinal()).offer(task);
+        tasks.release();
+
+        return true;
+    }
+
+    @Override
+    public void put(Runnable task) {
+        offer(task);
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+        return offer(task);
+    }
+
+    /**
+     * @return the next task or null if {@link #remove(Object)} has taken it, a pool thread just asks again then
+     */
+    @Override
+    public Runnable take() throws InterruptedException {
+        tasks.acquire();
+
+        return next();
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return tasks.tryAcquire(timeout, unit) ? next() : null;
+    }
+
+    @Override
+    public Runnable poll() {
+        return tasks.tryAcquire() ? next() : null;
+    }
+
+    @Override
+    public Runnable peek() {
+        for (Queue<Runnable> queue : queues) {
+            Runnable task = queue.peek();
+            if (task != null) {
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        for (Queue<Runnable> queue : queues) {
+            if (queue.remove(task)) {
+                //A thread which has got the permit of the task already takes this instead
+                if (!tasks.tryAcquire()) {
+                    removedWithoutPermit.incrementAndGet();
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Queue<Runnable> queue : queues) {
+            size += queue.size();
+        }
+
+        return size;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        int count = 0;
+        Runnable task;
+        while (count < maxElements && (task = poll()) != null) {
+            collection.add(task);
+            ++count;
+        }
+
+        return count;
+    }
+
+    /**
+     * A snapshot of waiting tasks, for monitoring and shutdown only.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        List<Runnable> snapshot = new ArrayList<>();
+        queues.forEach(snapshot::addAll);
+
+        return snapshot.iterator();
+    }
+
+    /**
+     * Called with a permit, so there is a task for this thread unless a removed one is left to it. A scan may miss
+     * the task while other threads offer and take, then it is repeated.
+     */
+    private Runnable next() {
+        while (true) {
+            long current = currentPass.get();
+            int next = -1;
+            long nextPass = 0;
+            long nextStart = 0;
+            for (int i = 0; i < PRIORITY_CLASSES.length; ++i) {
+                if (!queues.get(i).isEmpty()) {
+                    long pass = passes.get(i);
+                    long start = Math.max(pass, current);
+                    if (next == -1 || start < nextStart) {
+                        next = i;
+                        nextPass = pass;
+                        nextStart = start;
+                    }
+                }
+            }
+            if (next == -1) {
+                if (tryTakeRemoved()) {
+                    return null;
+                }
+                Thread.onSpinWait();
+                continue;
+            }
+            //Another thread has taken a turn of the class, so passes are looked at again
+            if (!passes.compareAndSet(next, nextPass, nextStart + PASS_UNIT / PRIORITY_CLASSES[next].getWeight())) {
+                continue;
+            }
+            currentPass.accumulateAndGet(nextStart, Math::max);
+            Runnable task = queues.get(next).poll();
+            //Null if another thread has emptied the class meanwhile, then the turn is lost and the permit is reused
+            if (task != null) {
+                return task;
+            }
+        }
+    }
+
+    private boolean tryTakeRemoved() {
+        int removed;
+        while ((removed = removedWithoutPermit.get()) > 0) {
+            if (removedWithoutPermit.compareAndSet(removed, removed - 1)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
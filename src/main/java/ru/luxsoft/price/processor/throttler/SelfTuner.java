@@ -0,0 +1,175 @@
+package ru.luxsoft.price.processor.throttler;
+
+import org.apache.log4j.Logger;
+import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class fits tier pools and the slow subscriber run time lower bound to the load. We need this because the load
+ * changes during a session: a pool sized for a quiet hour makes subscribers wait in a burst, and a pool sized for
+ * a burst holds idle threads the rest of the day.
+ *
+ * Busy threads and subscribers waiting for a thread are sampled in every tier several times per period. A tier which
+ * has been busy all the period with subscribers waiting gets a thread per waiting subscriber, a mostly idle tier
+ * gives one thread back. If the tier next to the slow one stays saturated at the max parallelism while the slow one
+ * doesn't, the slow subscriber lower bound goes down, so the slowest of its subscribers move to the slow tier, and
+ * the other way around. Changes stay within the configured bounds.
+ */
+class SelfTuner {
+
+    private static final Logger LOGGER = Logger.getLogger(SelfTuner.class);
+
+    private static final int SAMPLES_PER_PERIOD = 10;
+
+    private static final double SATURATED_UTILIZATION = 0.9;
+
+    private static final double IDLE_UTILIZATION = 0.5;
+
+    private static final double LOWER_BOUND_STEP = 1.25;
+
+    private final ThreadPoolPricePublisher pricePublisher;
+
+    private final TaskRapidityResolver taskRapidityResolver;
+
+    private final long periodInNanos;
+
+    private final int minParallelism;
+
+    private final int maxParallelism;
+
+    private final long minSlowLowerBoundInNanos;
+
+    private final long maxSlowLowerBoundInNanos;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "price-self-tuner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Sums of samples of the current period, used by the scheduler thread only
+    private final Map<TaskRapidityResolver.Rapidity, Integer> busyThreads =
+            new EnumMap<>(TaskRapidityResolver.Rapidity.class);
+
+    private final Map<TaskRapidityResolver.Rapidity, Integer> waitingSubscribers =
+            new EnumMap<>(TaskRapidityResolver.Rapidity.class);
+
+    private int samplesCount;
+
+    /**
+     * @param minSlowLowerBoundInNanos the slow subscriber lower bound isn't tuned unless it is less than
+     *                                 maxSlowLowerBoundInNanos
+     */
+    SelfTuner(ThreadPoolPricePublisher pricePublisher, TaskRapidityResolver taskRapidityResolver, long periodInNanos,
+              int minParallelism, int maxParallelism, long minSlowLowerBoundInNanos, long maxSlowLowerBoundInNanos) {
+        if (minParallelism < 1 || minParallelism > maxParallelism) {
+            throw new IllegalArgumentException("Self-tuning parallelism bounds are wrong: " + minParallelism + ", "
+                    + maxParallelism);
+        }
+        if (minSlowLowerBoundInNanos < maxSlowLowerBoundInNanos && minSlowLowerBoundInNanos <= 0) {
+            throw new IllegalArgumentException("Self-tuning slow subscriber lower bound must be positive");
+        }
+        this.pricePublisher = pricePublisher;
+        this.taskRapidityResolver = taskRapidityResolver;
+        this.periodInNanos = periodInNanos;
+        this.minParallelism = minParallelism;
+        this.maxParallelism = maxParallelism;
+        this.minSlowLowerBoundInNanos = minSlowLowerBoundInNanos;
+        this.maxSlowLowerBoundInNanos = maxSlowLowerBoundInNanos;
+    }
+
+    void start() {
+        long samplePeriod = Math.max(1, periodInNanos / SAMPLES_PER_PERIOD);
+        scheduler.scheduleAtFixedRate(this::sample, samplePeriod, samplePeriod, TimeUnit.NANOSECONDS);
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void sample() {
+        try {
+            for (TaskRapidityResolver.Rapidity rapidity : TaskRapidityResolver.Rapidity.values()) {
+                for (ThreadPoolExecutor threadPool : pricePublisher.getTierThreadPools(rapidity)) {
+                    busyThreads.merge(rapidity, threadPool.getActiveCount(), Integer::sum);
+                    waitingSubscribers.merge(rapidity, threadPool.getQueue().size(), Integer::sum);
+                }
+            }
+            if (++samplesCount == SAMPLES_PER_PERIOD) {
+                tune();
+                samplesCount = 0;
+                busyThreads.clear();
+                waitingSubscribers.clear();
+            }
+        } catch (RuntimeException e) {
+            //The next period tries again
+            LOGGER.error("Self-tuning failed", e);
+        }
+    }
+
+    private void tune() {
+        Map<TaskRapidityResolver.Rapidity, Boolean> saturatedAtMax = new EnumMap<>(TaskRapidityResolver.Rapidity.class);
+        for (TaskRapidityResolver.Rapidity rapidity : TaskRapidityResolver.Rapidity.values()) {
+            List<ThreadPoolExecutor> threadPools = pricePublisher.getTierThreadPools(rapidity);
+            if (threadPools.isEmpty()) {
+                continue;
+            }
+            int parallelism = pricePublisher.getParallelism(rapidity);
+            double utilization = (double) busyThreads.getOrDefault(rapidity, 0) / SAMPLES_PER_PERIOD / parallelism;
+            double waiting = (double) waitingSubscribers.getOrDefault(rapidity, 0) / SAMPLES_PER_PERIOD;
+            boolean saturated = utilization >= SATURATED_UTILIZATION && waiting >= 1;
+            //Shard pools grow and shrink together, and each keeps at least one thread
+            int target = parallelism;
+            if (saturated) {
+                target = Math.min(maxParallelism,
+                        parallelism + Math.max(threadPools.size(), (int) Math.ceil(waiting)));
+            } else if (utilization < IDLE_UTILIZATION && waiting < 1) {
+                target = Math.max(minParallelism, parallelism - threadPools.size());
+            }
+            target = Math.max(target, threadPools.size());
+            if (target != parallelism) {
+                pricePublisher.setParallelism(rapidity, target);
+                target = pricePublisher.getParallelism(rapidity);
+            }
+            if (target != parallelism) {
+                LOGGER.info("Tier " + rapidity + " parallelism " + parallelism + " -> " + target + ", utilization "
+                        + String.format("%.2f", utilization) + ", waiting subscribers "
+                        + String.format("%.1f", waiting));
+            }
+            saturatedAtMax.put(rapidity, saturated && target >= maxParallelism);
+        }
+        if (minSlowLowerBoundInNanos < maxSlowLowerBoundInNanos) {
+            tuneSlowLowerBound(saturatedAtMax);
+        }
+    }
+
+    private void tuneSlowLowerBound(Map<TaskRapidityResolver.Rapidity, Boolean> saturatedAtMax) {
+        TaskRapidityResolver.Rapidity faster = taskRapidityResolver.hasMediumTier()
+                ? TaskRapidityResolver.Rapidity.MEDIUM : TaskRapidityResolver.Rapidity.FAST;
+        boolean fasterSaturated = saturatedAtMax.getOrDefault(faster, false);
+        boolean slowSaturated = saturatedAtMax.getOrDefault(TaskRapidityResolver.Rapidity.SLOW, false);
+        long lowerBound = taskRapidityResolver.getSlowTaskLowerBoundInNanos();
+        long target = lowerBound;
+        if (fasterSaturated && !slowSaturated) {
+            target = Math.max(minSlowLowerBoundInNanos, (long) (lowerBound / LOWER_BOUND_STEP));
+        } else if (slowSaturated && !fasterSaturated) {
+            target = Math.min(maxSlowLowerBoundInNanos, (long) (lowerBound * LOWER_BOUND_STEP));
+        }
+        //The medium tier must stay between fast and slow ones
+        if (taskRapidityResolver.hasMediumTier()) {
+            target = Math.max(target, taskRapidityResolver.getMediumTaskLowerBoundInNanos());
+        }
+        if (target != lowerBound) {
+            taskRapidityResolver.setSlowTaskLowerBoundInNanos(target);
+            LOGGER.info("Slow subscriber run time lower bound in micros " + TimeUnit.NANOSECONDS.toMicros(lowerBound)
+                    + " -> " + TimeUnit.NANOSECONDS.toMicros(target));
+        }
+    }
+}
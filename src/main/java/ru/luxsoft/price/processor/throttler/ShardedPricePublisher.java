@@ -0,0 +1,262 @@
+package ru.luxsoft.price.processor.throttler;
+
+import ru.luxsoft.price.processor.throttler.price.PendingPrices;
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
+import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class partitions subscribers across shards. We need this because with one fan-out over all subscribers
+ * throughput stops growing after a few cores.
+ *
+ * A published price only marks its ccyPair in the conflation store of every shard, so the producer pays for the
+ * count of shards, not of subscribers, and takes no lock. The dispatcher thread of a shard fans ticked ccyPairs out
+ * to the shard's subscribers. Fast subscribers are delivered to by the thread pool of their shard, whose work queue
+ * is the shard's ready queue. Medium, slow and quarantined subscribers share the pools of
+ * {@link ThreadPoolPricePublisher}.
+ *
+ * New subscribers go to the shard with fewest subscribers. Fast subscribers are moved between shards when tiers
+ * change, so every shard pool has about the same count of them.
+ */
+class ShardedPricePublisher extends ThreadPoolPricePublisher {
+
+    private final Shard[] shards;
+
+    /**
+     * @param threadPools thread pool of slow and medium tiers, the slow tier pool is used for tiers without own pool
+     * @param shardThreadPools thread pool of fast subscribers of every shard
+     */
+    ShardedPricePublisher(Map<TaskRapidityResolver.Rapidity, ThreadPoolExecutor> threadPools,
+                          List<ThreadPoolExecutor> shardThreadPools, ThreadPoolExecutor quarantineThreadPool,
+                          TaskRapidityResolver taskRapidityResolver, PriceProcessorsContainer priceProcessors,
+                          PriceTable priceTable) {
+        super(threadPools, quarantineThreadPool, taskRapidityResolver, priceProcessors, priceTable);
+        this.shards = new Shard[shardThreadPools.size()];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard(i, shardThreadPools.get(i));
+            trackPoolSize(shardThreadPools.get(i));
+        }
+    }
+
+    @Override
+    void start() {
+        super.start();
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    @Override
+    void publish(int ccyPairId, long nanoTime) {
+        for (Shard shard : shards) {
+            shard.offer(ccyPairId, nanoTime);
+        }
+    }
+
+    @Override
+    synchronized void subscribed(Subscription subscription) {
+        Shard target = shards[0];
+        for (Shard shard : shards) {
+            if (shard.subscriptions.length < target.subscriptions.length) {
+                target = shard;
+            }
+        }
+        target.add(subscription);
+        super.subscribed(subscription);
+    }
+
+    @Override
+    synchronized void unsubscribed(Subscription subscription) {
+        shards[subscription.getShard()].remove(subscription);
+    }
+
+    @Override
+    void rapidityChanged(Subscription subscription, TaskRapidityResolver.Rapidity previous) {
+        if (previous == TaskRapidityResolver.Rapidity.FAST
+                || subscription.getRapidity() == TaskRapidityResolver.Rapidity.FAST) {
+            rebalance();
+        }
+    }
+
+    @Override
+    boolean hasUnpublishedPrices() {
+        for (Shard shard : shards) {
+            if (shard.tickedCcyPairs.size() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    ThreadPoolExecutor getThreadPool(Subscription subscription) {
+        if (subscription.getRapidity() == TaskRapidityResolver.Rapidity.FAST && !subscription.isQuarantined()) {
+            return shards[subscription.getShard()].threadPool;
+        }
+
+        return super.getThreadPool(subscription);
+    }
+
+    /**
+     * Fast parallelism is split between shards, every shard pool has at least one thread.
+     */
+    @Override
+    List<ThreadPoolExecutor> getTierThreadPools(TaskRapidityResolver.Rapidity rapidity) {
+        if (rapidity != TaskRapidityResolver.Rapidity.FAST) {
+            return super.getTierThreadPools(rapidity);
+        }
+        List<ThreadPoolExecutor> threadPools = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            threadPools.add(shard.threadPool);
+        }
+
+        return threadPools;
+    }
+
+    @Override
+    List<ThreadPoolExecutor> getThreadPools() {
+        List<ThreadPoolExecutor> threadPools = new ArrayList<>(super.getThreadPools());
+        for (Shard shard : shards) {
+            threadPools.add(shard.threadPool);
+        }
+
+        return threadPools;
+    }
+
+    @Override
+    void stop(long deadlineNanos) {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        super.stop(deadlineNanos);
+    }
+
+    /**
+     * Moves fast subscribers from shards which have more of them to shards which have fewer.
+     */
+    private synchronized void rebalance() {
+        while (true) {
+            Shard most = shards[0];
+            Shard fewest = shards[0];
+            for (Shard shard : shards) {
+                if (shard.getFastSubscribersCount() > most.getFastSubscribersCount()) {
+                    most = shard;
+                }
+                if (shard.getFastSubscribersCount() < fewest.getFastSubscribersCount()) {
+                    fewest = shard;
+                }
+            }
+            if (most.getFastSubscribersCount() - fewest.getFastSubscribersCount() <= 1) {
+                return;
+            }
+            for (Subscription subscription : most.subscriptions) {
+                if (subscription.getRapidity() == TaskRapidityResolver.Rapidity.FAST) {
+                    //Added before removed, so the subscription never misses a fan-out
+                    fewest.add(subscription);
+                    most.remove(subscription);
+                    break;
+                }
+            }
+        }
+    }
+
+    private class Shard implements Runnable {
+
+        private final int number;
+
+        private final ThreadPoolExecutor threadPool;
+
+        //CcyPairs ticked since the last fan-out
+        private final PendingPrices tickedCcyPairs;
+
+        private final Thread thread;
+
+        //Copy on write, changed under the publisher lock
+        private volatile Subscription[] subscriptions = new Subscription[0];
+
+        private volatile boolean waiting;
+
+        private volatile boolean running = true;
+
+        Shard(int number, ThreadPoolExecutor threadPool) {
+            this.number = number;
+            this.threadPool = threadPool;
+            this.tickedCcyPairs = new PendingPrices(priceTable.capacity(), priceTable.isOffHeap());
+            this.thread = new Thread(this, "price-shard-" + number);
+            thread.setDaemon(true);
+        }
+
+        void offer(int ccyPairId, long nanoTime) {
+            //The dispatcher sets waiting before the last check of ticked ccyPairs, so either it sees the tick or
+            //the producer sees it waiting
+            if (tickedCcyPairs.put(ccyPairId, nanoTime) && waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void add(Subscription subscription) {
+            Subscription[] result = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            result[subscriptions.length] = subscription;
+            subscriptions = result;
+            subscription.setShard(number);
+        }
+
+        void remove(Subscription subscription) {
+            Subscription[] result = new Subscription[subscriptions.length];
+            int count = 0;
+            for (Subscription existing : subscriptions) {
+                if (existing != subscription) {
+                    result[count++] = existing;
+                }
+            }
+            subscriptions = Arrays.copyOf(result, count);
+        }
+
+        int getFastSubscribersCount() {
+            int count = 0;
+            for (Subscription subscription : subscriptions) {
+                if (subscription.getRapidity() == TaskRapidityResolver.Rapidity.FAST) {
+                    ++count;
+                }
+            }
+
+            return count;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                if (fanOut()) {
+                    continue;
+                }
+                waiting = true;
+                if (tickedCcyPairs.size() == 0 && running) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                waiting = false;
+            }
+        }
+
+        /**
+         * @return false if no ccyPair has ticked since the last fan-out
+         */
+        private boolean fanOut() {
+            boolean fannedOut = false;
+            for (int i = tickedCcyPairs.nextPending(0); i != -1; i = tickedCcyPairs.nextPending(i + 1)) {
+                publish(subscriptions, i, tickedCcyPairs.take(i));
+                fannedOut = true;
+            }
+
+            return fannedOut;
+        }
+    }
+}
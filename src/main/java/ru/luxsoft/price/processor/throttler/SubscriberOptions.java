@@ -0,0 +1,137 @@
+package ru.luxsoft.price.processor.throttler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class holds settings of one subscriber, see
+ * {@link PriceThrottler#subscribe(ru.luxsoft.price.processor.PriceProcessor, SubscriberOptions)}.
+ */
+public class SubscriberOptions {
+
+    private long deliveryDeadlineInMillis = -1;
+
+    private double minAbsoluteChange = 0;
+
+    private final Map<String, Double> ccyPairMinAbsoluteChanges = new HashMap<>();
+
+    private double minRelativeChange = 0;
+
+    private long minIntervalInMillis = 0;
+
+    private long finalValueDelayInMillis = 1000;
+
+    private PriorityClass priorityClass = PriorityClass.NORMAL;
+
+    private int weight = 1;
+
+    public long getDeliveryDeadlineInMillis() {
+        return deliveryDeadlineInMillis;
+    }
+
+    /**
+     * Zero means no deadline, negative, the default, means the deadline from {@link PriceThrottlerConfig}.
+     */
+    public SubscriberOptions setDeliveryDeadlineInMillis(long deliveryDeadlineInMillis) {
+        this.deliveryDeadlineInMillis = deliveryDeadlineInMillis;
+        return this;
+    }
+
+    public double getMinAbsoluteChange() {
+        return minAbsoluteChange;
+    }
+
+    /**
+     * Min rate change against the last delivered rate which is worth a delivery, a pip for example. Zero, the default,
+     * means any change.
+     */
+    public SubscriberOptions setMinAbsoluteChange(double minAbsoluteChange) {
+        this.minAbsoluteChange = minAbsoluteChange;
+        return this;
+    }
+
+    public Map<String, Double> getCcyPairMinAbsoluteChanges() {
+        return ccyPairMinAbsoluteChanges;
+    }
+
+    /**
+     * Overrides the min absolute change for the ccyPair, for example for pairs with another pip size.
+     */
+    public SubscriberOptions setMinAbsoluteChange(String ccyPair, double minAbsoluteChange) {
+        ccyPairMinAbsoluteChanges.put(ccyPair, minAbsoluteChange);
+        return this;
+    }
+
+    public double getMinRelativeChange() {
+        return minRelativeChange;
+    }
+
+    /**
+     * Min rate change relative to the last delivered rate which is worth a delivery. Zero, the default, means any
+     * change.
+     */
+    public SubscriberOptions setMinRelativeChange(double minRelativeChange) {
+        this.minRelativeChange = minRelativeChange;
+        return this;
+    }
+
+    public long getMinIntervalInMillis() {
+        return minIntervalInMillis;
+    }
+
+    /**
+     * Min time between two deliveries of a ccyPair. Zero, the default, means no limit.
+     */
+    public SubscriberOptions setMinIntervalInMillis(long minIntervalInMillis) {
+        this.minIntervalInMillis = minIntervalInMillis;
+        return this;
+    }
+
+    public long getFinalValueDelayInMillis() {
+        return finalValueDelayInMillis;
+    }
+
+    /**
+     * How long a change smaller than the min change waits before it is delivered anyway, so the subscriber always
+     * gets the final rate of every ccyPair.
+     */
+    public SubscriberOptions setFinalValueDelayInMillis(long finalValueDelayInMillis) {
+        this.finalValueDelayInMillis = finalValueDelayInMillis;
+        return this;
+    }
+
+    public PriorityClass getPriorityClass() {
+        return priorityClass;
+    }
+
+    /**
+     * Subscribers of higher classes get turns sooner and more often when threads are busy. Not used in
+     * {@link PriceThrottlerConfig.ExecutionMode#VIRTUAL_THREADS} mode.
+     */
+    public SubscriberOptions setPriorityClass(PriorityClass priorityClass) {
+        this.priorityClass = priorityClass;
+        return this;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * Length of the subscriber delivery turn in base turns, one by default. Subscribers which always have pending
+     * prices share thread time by their weights. Not used in {@link PriceThrottlerConfig.ExecutionMode#VIRTUAL_THREADS}
+     * mode.
+     */
+    public SubscriberOptions setWeight(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        this.weight = weight;
+        return this;
+    }
+
+    boolean hasDeliveryFilter() {
+        return minAbsoluteChange > 0 || !ccyPairMinAbsoluteChanges.isEmpty() || minRelativeChange > 0
+                || minIntervalInMillis > 0;
+    }
+}
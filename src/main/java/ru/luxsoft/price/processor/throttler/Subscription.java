@@ -0,0 +1,311 @@
+package ru.luxsoft.price.processor.throttler;
+
+import ru.luxsoft.price.processor.BatchPriceProcessor;
+import ru.luxsoft.price.processor.PriceProcessor;
+import ru.luxsoft.price.processor.throttler.metrics.SubscriberMetrics;
+import ru.luxsoft.price.processor.throttler.price.DeliveryFilter;
+import ru.luxsoft.price.processor.throttler.price.PendingPrices;
+import ru.luxsoft.price.processor.throttler.rapidity.RapidityProfile;
+import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class holds the delivery state of one subscriber. We need this to wake a subscriber up only
+ * when it is idle, so at most one delivery turn per subscriber is scheduled or running at any time.
+ *
+ * A subscription goes IDLE -> SCHEDULED when a price wakes it up, SCHEDULED -> RUNNING when a thread starts
+ * delivering and RUNNING -> IDLE when the thread is done. Only the IDLE -> SCHEDULED transition puts the subscription
+ * to a ready queue, so the queue holds only subscribers with pending prices which aren't delivered to right now.
+ */
+class Subscription {
+
+    static final long NOT_IN_CALL = Long.MIN_VALUE;
+
+    private static final int IDLE = 0;
+
+    private static final int SCHEDULED = 1;
+
+    private static final int RUNNING = 2;
+
+    private static final AtomicIntegerFieldUpdater<Subscription> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Subscription.class, "state");
+
+    //Count of calls in deadline in a row which release a subscriber from quarantine
+    private static final int QUARANTINE_RELEASE_CALLS = 3;
+
+    private final PriceProcessor priceProcessor;
+
+    private final PendingPrices pendingPrices;
+
+    //Not null for batch subscribers only
+    private final PriceBatch priceBatch;
+
+    //Prices requested by a demand-driven subscriber and not delivered yet, null for other subscribers
+    private final AtomicLong demand;
+
+    private volatile int state = IDLE;
+
+    //Subscription of the same processor which was unsubscribed in the middle of a delivery
+    private volatile Subscription predecessor;
+
+    //Reusable delivery task, set by the thread which has scheduled the subscription
+    private Runnable deliveryTask;
+
+    private final RapidityProfile rapidityProfile = new RapidityProfile(TaskRapidityResolver.Rapidity.SLOW);
+
+    private final SubscriberMetrics metrics = new SubscriberMetrics();
+
+    private volatile boolean active = true;
+
+    private volatile Thread deliveryThread;
+
+    //Zero means no deadline
+    private final long deliveryDeadlineInNanos;
+
+    private final CircuitBreaker circuitBreaker;
+
+    //Null if every price is worth a delivery
+    private final DeliveryFilter deliveryFilter;
+
+    private final PriorityClass priorityClass;
+
+    //Length of a delivery turn in base turns
+    private final int weight;
+
+    private volatile long callStartNanos = NOT_IN_CALL;
+
+    private volatile Thread callThread;
+
+    //Set by the watchdog when the current call has passed its deadline
+    private final AtomicBoolean overdue = new AtomicBoolean();
+
+    private volatile boolean quarantined;
+
+    private int callsInDeadlineInQuarantine;
+
+    //Used in sharded mode only
+    private volatile int shard;
+
+    Subscription(PriceProcessor priceProcessor, PendingPrices pendingPrices, int ccyPairsCapacity,
+                 long deliveryDeadlineInNanos, CircuitBreaker circuitBreaker, DeliveryFilter deliveryFilter,
+                 PriorityClass priorityClass, int weight) {
+        this.priceProcessor = priceProcessor;
+        this.pendingPrices = pendingPrices;
+        this.priceBatch = priceProcessor instanceof BatchPriceProcessor ? new PriceBatch(ccyPairsCapacity) : null;
+        this.demand = priceProcessor instanceof FlowSubscription ? new AtomicLong() : null;
+        this.deliveryDeadlineInNanos = deliveryDeadlineInNanos;
+        this.circuitBreaker = circuitBreaker;
+        this.deliveryFilter = deliveryFilter;
+        this.priorityClass = priorityClass;
+        this.weight = weight;
+    }
+
+    PriceProcessor getPriceProcessor() {
+        return priceProcessor;
+    }
+
+    PendingPrices getPendingPrices() {
+        return pendingPrices;
+    }
+
+    PriceBatch getPriceBatch() {
+        return priceBatch;
+    }
+
+    /**
+     * A demand-driven subscriber gets prices only when it has requested them, on the thread which publishes them
+     * or requests more.
+     */
+    boolean isDemandDriven() {
+        return demand != null;
+    }
+
+    /**
+     * @return true if the subscriber may get one more price, always true if it isn't demand-driven
+     */
+    boolean hasDemand() {
+        return demand == null || demand.get() > 0;
+    }
+
+    /**
+     * Long.MAX_VALUE and any demand summing up beyond it mean unbounded demand.
+     */
+    void addDemand(long count) {
+        demand.accumulateAndGet(count, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+    }
+
+    /**
+     * Called once a demand-driven subscriber has got a price.
+     */
+    void onDemandMet() {
+        demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+    }
+
+    TaskRapidityResolver.Rapidity getRapidity() {
+        return rapidityProfile.getRapidity();
+    }
+
+    RapidityProfile getRapidityProfile() {
+        return rapidityProfile;
+    }
+
+    SubscriberMetrics getMetrics() {
+        return metrics;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    void cancel() {
+        active = false;
+    }
+
+    Thread getDeliveryThread() {
+        return deliveryThread;
+    }
+
+    void setDeliveryThread(Thread deliveryThread) {
+        this.deliveryThread = deliveryThread;
+    }
+
+    boolean isIdle() {
+        return state == IDLE;
+    }
+
+    boolean isRunning() {
+        return state == RUNNING;
+    }
+
+    /**
+     * @return true if the subscriber was idle and the caller has to schedule its delivery turn
+     */
+    boolean tryMarkScheduled() {
+        return state == IDLE && STATE.compareAndSet(this, IDLE, SCHEDULED);
+    }
+
+    void markRunning() {
+        state = RUNNING;
+    }
+
+    void markIdle() {
+        state = IDLE;
+    }
+
+    Runnable getDeliveryTask() {
+        return deliveryTask;
+    }
+
+    void setDeliveryTask(Runnable deliveryTask) {
+        this.deliveryTask = deliveryTask;
+    }
+
+    void setPredecessor(Subscription predecessor) {
+        this.predecessor = predecessor;
+    }
+
+    /**
+     * A re-subscribed processor mustn't get prices from two threads at once, so the new subscription waits while
+     * the old one finishes its delivery.
+     */
+    boolean isWaitingForPredecessor() {
+        Subscription subscription = predecessor;
+        if (subscription == null) {
+            return false;
+        }
+        if (subscription.isRunning() || subscription.isWaitingForPredecessor()) {
+            return true;
+        }
+        predecessor = null;
+        return false;
+    }
+
+    int getShard() {
+        return shard;
+    }
+
+    void setShard(int shard) {
+        this.shard = shard;
+    }
+
+    long getDeliveryDeadlineInNanos() {
+        return deliveryDeadlineInNanos;
+    }
+
+    DeliveryFilter getDeliveryFilter() {
+        return deliveryFilter;
+    }
+
+    PriorityClass getPriorityClass() {
+        return priorityClass;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @return start of the running subscriber call or {@link #NOT_IN_CALL}
+     */
+    long getCallStartNanos() {
+        return callStartNanos;
+    }
+
+    Thread getCallThread() {
+        return callThread;
+    }
+
+    void callStarted(long nanoTime) {
+        callThread = Thread.currentThread();
+        callStartNanos = nanoTime;
+    }
+
+    /**
+     * @return true if the call has passed its deadline and the caller has to clean up after it
+     */
+    boolean callFinished() {
+        callStartNanos = NOT_IN_CALL;
+        return overdue.get();
+    }
+
+    /**
+     * @return true if the running call has just been found overdue and the caller has to handle it
+     */
+    boolean tryMarkOverdue() {
+        return overdue.compareAndSet(false, true);
+    }
+
+    void clearOverdue() {
+        overdue.set(false);
+    }
+
+    boolean isQuarantined() {
+        return quarantined;
+    }
+
+    void quarantine() {
+        callsInDeadlineInQuarantine = 0;
+        quarantined = true;
+    }
+
+    /**
+     * Called by the delivering thread after every call which hasn't passed its deadline.
+     *
+     * @return true if the subscriber has been released from quarantine
+     */
+    boolean onCallInDeadline() {
+        if (quarantined && ++callsInDeadlineInQuarantine >= QUARANTINE_RELEASE_CALLS) {
+            quarantined = false;
+            return true;
+        }
+
+        return false;
+    }
+}
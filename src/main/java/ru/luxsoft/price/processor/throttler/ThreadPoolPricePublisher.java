@@ -0,0 +1,221 @@
+package ru.luxsoft.price.processor.throttler;
+
+import org.apache.log4j.Logger;
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
+import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class publishes prices to subscribers of every rapidity tier concurrently in different thread pools. We need
+ * this because we wan't affect slow subscribers to fast subscribers.
+ *
+ * A woken subscriber is put to the work queue of its tier pool once, with its reusable delivery task. So the queue
+ * is a ready queue of subscribers which have pending prices and aren't delivered to right now, and every taken task
+ * delivers something. A woken subscriber drains its pending prices until nothing is left and goes idle again.
+ * A subscriber which always has pending prices gives its thread back after {@link #DELIVERY_TURN_IN_NANOS} times its
+ * weight and is scheduled again behind the others. So backlogged subscribers share a pool's thread time by their
+ * weights, and the {@link ReadyQueue} of the pool shares turns between priority classes.
+ *
+ * A subscriber which has passed its delivery deadline is quarantined: its next turns run in the quarantine pool.
+ * Its tier pool gets an extra thread while the overdue call is running, so the hung thread doesn't count against
+ * healthy subscribers. Quarantined subscribers go back to their tier after a few calls in deadline.
+ *
+ * Tier pools may be resized while deliveries go on. Threads above the new size finish their running turns and stop,
+ * threads lent for overdue calls stay on top of it.
+ */
+class ThreadPoolPricePublisher extends PricePublisher {
+
+    private static final Logger LOGGER = Logger.getLogger(ThreadPoolPricePublisher.class);
+
+    private static final long DELIVERY_TURN_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Map<TaskRapidityResolver.Rapidity, ThreadPoolExecutor> threadPools;
+
+    private final ThreadPoolExecutor quarantineThreadPool;
+
+    //Tier pools which have got an extra thread for an overdue call of the subscription
+    private final Map<Subscription, ThreadPoolExecutor> lentThreads = new ConcurrentHashMap<>();
+
+    //Sizes of tier pools without lent threads, guarded by this
+    private final Map<ThreadPoolExecutor, Integer> poolSizes = new HashMap<>();
+
+    /**
+     * @param threadPools thread pool of every tier, the slow tier pool is used for tiers without own pool
+     */
+    ThreadPoolPricePublisher(Map<TaskRapidityResolver.Rapidity, ThreadPoolExecutor> threadPools,
+                             ThreadPoolExecutor quarantineThreadPool, TaskRapidityResolver taskRapidityResolver,
+                             PriceProcessorsContainer priceProcessors, PriceTable priceTable) {
+        super(taskRapidityResolver, priceProcessors, priceTable);
+        this.threadPools = new EnumMap<>(threadPools);
+        this.quarantineThreadPool = quarantineThreadPool;
+        threadPools.values().forEach(this::trackPoolSize);
+    }
+
+    @Override
+    void stop(long deadlineNanos) {
+        shutdownExecutorServices(getThreadPools(), deadlineNanos);
+    }
+
+    List<ThreadPoolExecutor> getThreadPools() {
+        List<ThreadPoolExecutor> allThreadPools = new ArrayList<>(threadPools.values());
+        allThreadPools.add(quarantineThreadPool);
+
+        return allThreadPools;
+    }
+
+    @Override
+    void overdue(Subscription subscription) {
+        if (subscription.isQuarantined()) {
+            //Starts counting calls in deadline again
+            subscription.quarantine();
+            return;
+        }
+        subscription.quarantine();
+        ThreadPoolExecutor threadPool = getThreadPool(subscription);
+        resize(threadPool, 1);
+        lentThreads.put(subscription, threadPool);
+        LOGGER.warn("Subscriber " + subscription.getPriceProcessor() + " is quarantined");
+    }
+
+    @Override
+    void overdueCallFinished(Subscription subscription) {
+        ThreadPoolExecutor threadPool = lentThreads.remove(subscription);
+        if (threadPool != null) {
+            resize(threadPool, -1);
+        }
+    }
+
+    @Override
+    void schedule(Subscription subscription) {
+        if (subscription.tryMarkScheduled()) {
+            dispatched(subscription);
+            ThreadPoolExecutor threadPool = subscription.isQuarantined()
+                    ? quarantineThreadPool : getThreadPool(subscription);
+            Runnable deliveryTask = subscription.getDeliveryTask();
+            if (deliveryTask == null) {
+                deliveryTask = new DeliveryTask(subscription);
+                subscription.setDeliveryTask(deliveryTask);
+            }
+            try {
+                threadPool.execute(deliveryTask);
+            } catch (RejectedExecutionException e) {
+                //Throttler is shutting down
+                subscription.markIdle();
+            }
+        }
+    }
+
+    @Override
+    synchronized void setParallelism(TaskRapidityResolver.Rapidity rapidity, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        List<ThreadPoolExecutor> tierThreadPools = getTierThreadPools(rapidity);
+        if (tierThreadPools.isEmpty()) {
+            throw new IllegalStateException("Tier " + rapidity + " has no thread pool of its own");
+        }
+        int poolSize = Math.max(1, parallelism / tierThreadPools.size());
+        for (ThreadPoolExecutor threadPool : tierThreadPools) {
+            resize(threadPool, poolSize - poolSizes.put(threadPool, poolSize));
+        }
+    }
+
+    @Override
+    synchronized int getParallelism(TaskRapidityResolver.Rapidity rapidity) {
+        int parallelism = 0;
+        for (ThreadPoolExecutor threadPool : getTierThreadPools(rapidity)) {
+            parallelism += poolSizes.get(threadPool);
+        }
+
+        return parallelism;
+    }
+
+    /**
+     * @return pools which deliver to the tier only, empty if the tier shares the slow tier pool
+     */
+    List<ThreadPoolExecutor> getTierThreadPools(TaskRapidityResolver.Rapidity rapidity) {
+        ThreadPoolExecutor threadPool = threadPools.get(rapidity);
+
+        return threadPool == null ? List.of() : List.of(threadPool);
+    }
+
+    /**
+     * Must be called for every tier pool before its first resize.
+     */
+    synchronized void trackPoolSize(ThreadPoolExecutor threadPool) {
+        poolSizes.put(threadPool, threadPool.getCorePoolSize());
+    }
+
+    /**
+     * @return the pool of the subscriber tier
+     */
+    ThreadPoolExecutor getThreadPool(Subscription subscription) {
+        return threadPools.getOrDefault(subscription.getRapidity(), threadPools.get(TaskRapidityResolver.Rapidity.SLOW));
+    }
+
+    private void deliverTurn(Subscription subscription) {
+        //Marked running before checking it is still active, so unsubscribe can't miss a running delivery
+        subscription.markRunning();
+        TaskRapidityResolver.Rapidity rapidity = subscription.getRapidity();
+        boolean quarantined = subscription.isQuarantined();
+        long turnStart = System.nanoTime();
+        long turnLength = DELIVERY_TURN_IN_NANOS * subscription.getWeight();
+        try {
+            while (subscription.isActive() && deliverNext(subscription)) {
+                if (subscription.getRapidity() != rapidity || subscription.isQuarantined() != quarantined) {
+                    //Continue in the pool of the new tier or of the quarantine
+                    break;
+                }
+                if (System.nanoTime() - turnStart >= turnLength) {
+                    break;
+                }
+            }
+        } finally {
+            subscription.markIdle();
+            if (isDeliverable(subscription, System.nanoTime())) {
+                wakeUp(subscription);
+            }
+        }
+    }
+
+    private class DeliveryTask implements Runnable, ReadyQueue.Prioritized {
+
+        private final Subscription subscription;
+
+        DeliveryTask(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void run() {
+            deliverTurn(subscription);
+        }
+
+        @Override
+        public PriorityClass getPriorityClass() {
+            return subscription.getPriorityClass();
+        }
+    }
+
+    private static void resize(ThreadPoolExecutor threadPool, int delta) {
+        synchronized (threadPool) {
+            //Maximum pool size can't be less than core pool size
+            if (delta > 0) {
+                threadPool.setMaximumPoolSize(threadPool.getMaximumPoolSize() + delta);
+                threadPool.setCorePoolSize(threadPool.getCorePoolSize() + delta);
+            } else {
+                threadPool.setCorePoolSize(threadPool.getCorePoolSize() + delta);
+                threadPool.setMaximumPoolSize(threadPool.getMaximumPoolSize() + delta);
+            }
+        }
+    }
+}
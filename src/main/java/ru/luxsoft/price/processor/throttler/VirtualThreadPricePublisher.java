@@ -0,0 +1,110 @@
+package ru.luxsoft.price.processor.throttler;
+
+import ru.luxsoft.price.processor.throttler.price.PriceTable;
+import ru.luxsoft.price.processor.throttler.rapidity.TaskRapidityResolver;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class gives every subscriber its own virtual thread. We need this because there is no fixed parallelism
+ * limit then, so slow subscribers can't take threads from any other subscriber.
+ *
+ * The subscriber thread drains pending prices and parks when nothing is left. A new price unparks it. A subscriber
+ * which has passed its delivery deadline only gets its thread interrupted: it doesn't hold anybody else's thread.
+ * Virtual threads are looked up reflectively, so the throttler still runs on older runtimes in the
+ * thread pools mode.
+ */
+class VirtualThreadPricePublisher extends PricePublisher {
+
+    private final ThreadFactory threadFactory = createVirtualThreadFactory();
+
+    private volatile boolean shutdown;
+
+    VirtualThreadPricePublisher(TaskRapidityResolver taskRapidityResolver, PriceProcessorsContainer priceProcessors,
+                                PriceTable priceTable) {
+        super(taskRapidityResolver, priceProcessors, priceTable);
+    }
+
+    @Override
+    void subscribed(Subscription subscription) {
+        if (subscription.isDemandDriven()) {
+            super.subscribed(subscription);
+            return;
+        }
+        Thread deliveryThread = threadFactory.newThread(() -> deliveryLoop(subscription));
+        subscription.setDeliveryThread(deliveryThread);
+        deliveryThread.start();
+    }
+
+    @Override
+    void unsubscribed(Subscription subscription) {
+        LockSupport.unpark(subscription.getDeliveryThread());
+    }
+
+    @Override
+    void stop(long deadlineNanos) {
+        shutdown = true;
+        Subscription[] subscriptions = priceProcessors.getSubscriptions();
+        for (Subscription subscription : subscriptions) {
+            LockSupport.unpark(subscription.getDeliveryThread());
+        }
+        try {
+            for (Subscription subscription : subscriptions) {
+                Thread deliveryThread = subscription.getDeliveryThread();
+                if (deliveryThread == null) {
+                    //Demand-driven subscription
+                    continue;
+                }
+                long timeout = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (timeout > 0) {
+                    deliveryThread.join(timeout);
+                }
+                deliveryThread.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    void schedule(Subscription subscription) {
+        if (subscription.tryMarkScheduled()) {
+            dispatched(subscription);
+            LockSupport.unpark(subscription.getDeliveryThread());
+        }
+    }
+
+    private void deliveryLoop(Subscription subscription) {
+        try {
+            while (!shutdown && subscription.isActive()) {
+                subscription.markIdle();
+                if (!isDeliverable(subscription, System.nanoTime())) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                subscription.markRunning();
+
+                //Checks the subscription is still active after marking it running, see PriceProcessorsContainer
+                while (!shutdown && subscription.isActive() && deliverNext(subscription)) {
+                    //Drains pending prices, subscriber failures are handled by deliverNext
+                }
+            }
+        } finally {
+            subscription.markIdle();
+        }
+    }
+
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "price-subscriber-", 0L);
+
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads mode requires Java 21 or newer", e);
+        }
+    }
+}
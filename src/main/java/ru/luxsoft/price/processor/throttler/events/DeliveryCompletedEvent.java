@@ -0,0 +1,44 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * A call of a subscriber has returned or thrown, the event duration is the call run time. Calls shorter than
+ * the threshold, one millisecond by default, aren't recorded.
+ */
+@Name(ThrottlerEvents.DELIVERY_COMPLETED)
+@Label("Delivery Completed")
+@Category(ThrottlerEvents.CATEGORY)
+@Description("A call of a subscriber has finished")
+@Threshold("1 ms")
+@StackTrace(false)
+public class DeliveryCompletedEvent extends Event {
+
+    @Label("Subscriber")
+    public String subscriber;
+
+    @Label("Tier")
+    public String tier;
+
+    @Label("CcyPair")
+    @Description("The delivered ccyPair, null for a batch")
+    public String ccyPair;
+
+    @Label("Prices Count")
+    public int pricesCount;
+
+    @Label("Pending Time")
+    @Description("Age of the oldest delivered tick when the call started")
+    @Timespan(Timespan.NANOSECONDS)
+    public long pendingNanos;
+
+    @Label("Failed")
+    public boolean failed;
+}
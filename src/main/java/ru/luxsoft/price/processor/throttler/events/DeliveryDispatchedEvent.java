@@ -0,0 +1,31 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * An idle subscriber with pending prices is put to the ready queue of its pool or unparked. Disabled by default,
+ * there may be one per tick and subscriber.
+ */
+@Name(ThrottlerEvents.DELIVERY_DISPATCHED)
+@Label("Delivery Dispatched")
+@Category(ThrottlerEvents.CATEGORY)
+@Description("An idle subscriber with pending prices is scheduled for a delivery")
+@Enabled(false)
+@StackTrace(false)
+public class DeliveryDispatchedEvent extends Event {
+
+    @Label("Subscriber")
+    public String subscriber;
+
+    @Label("Tier")
+    public String tier;
+
+    @Label("Priority Class")
+    public String priorityClass;
+}
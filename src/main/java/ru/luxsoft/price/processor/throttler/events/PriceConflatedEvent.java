@@ -0,0 +1,31 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A price is put to the pending prices of a subscriber. Disabled by default, there is one per tick and subscriber.
+ */
+@Name(ThrottlerEvents.PRICE_CONFLATED)
+@Label("Price Conflated")
+@Category(ThrottlerEvents.CATEGORY)
+@Description("A price is put to the pending prices of a subscriber")
+@Enabled(false)
+@StackTrace(false)
+public class PriceConflatedEvent extends Event {
+
+    @Label("Subscriber")
+    public String subscriber;
+
+    @Label("CcyPair")
+    public String ccyPair;
+
+    @Label("Overwritten")
+    @Description("The subscriber hasn't got the previous price of the ccyPair yet, so it is overwritten")
+    public boolean overwritten;
+}
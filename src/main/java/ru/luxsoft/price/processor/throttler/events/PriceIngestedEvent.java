@@ -0,0 +1,27 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A price has come to the throttler. Disabled by default, there is one per tick.
+ */
+@Name(ThrottlerEvents.PRICE_INGESTED)
+@Label("Price Ingested")
+@Category(ThrottlerEvents.CATEGORY)
+@Description("A price has come to the throttler")
+@Enabled(false)
+@StackTrace(false)
+public class PriceIngestedEvent extends Event {
+
+    @Label("CcyPair")
+    public String ccyPair;
+
+    @Label("Rate")
+    public double rate;
+}
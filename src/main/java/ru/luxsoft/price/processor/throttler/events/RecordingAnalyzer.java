@@ -0,0 +1,173 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class reads throttler events of a flight recording offline and breaks delivery latency down by subscriber
+ * and by ccyPair: time pending in the conflation store, time in the ready queue and time in onPrice.
+ *
+ * Record with all events enabled and zero delivery threshold, see {@link ThrottlerEvents#enable}. Queue times are
+ * matched from dispatches to the next call of the subscriber, so they are missing if dispatches aren't recorded
+ * and too long if short calls are left out. Batch calls count for subscribers only.
+ *
+ * Usage: java ru.luxsoft.price.processor.throttler.events.RecordingAnalyzer recording.jfr
+ */
+public class RecordingAnalyzer {
+
+    private final Map<String, SubscriberEvents> subscribers = new TreeMap<>();
+
+    private final Map<String, CcyPairEvents> ccyPairs = new TreeMap<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: RecordingAnalyzer <recording.jfr>");
+            System.exit(2);
+        }
+        System.out.print(analyze(Path.of(args[0])));
+    }
+
+    public static RecordingReport analyze(Path recording) throws IOException {
+        RecordingAnalyzer analyzer = new RecordingAnalyzer();
+        try (RecordingFile recordingFile = new RecordingFile(recording)) {
+            while (recordingFile.hasMoreEvents()) {
+                analyzer.add(recordingFile.readEvent());
+            }
+        }
+
+        return analyzer.report();
+    }
+
+    private void add(RecordedEvent event) {
+        switch (event.getEventType().getName()) {
+            case ThrottlerEvents.PRICE_INGESTED:
+                getCcyPair(event.getString("ccyPair")).ingested++;
+                break;
+            case ThrottlerEvents.PRICE_CONFLATED:
+                if (event.getBoolean("overwritten")) {
+                    getSubscriber(event.getString("subscriber")).overwritten++;
+                    getCcyPair(event.getString("ccyPair")).overwritten++;
+                }
+                break;
+            case ThrottlerEvents.DELIVERY_DISPATCHED:
+                getSubscriber(event.getString("subscriber")).dispatches.add(toNanos(event.getStartTime()));
+                break;
+            case ThrottlerEvents.DELIVERY_COMPLETED:
+                addCall(event);
+                break;
+            case ThrottlerEvents.TIER_CHANGED:
+                getSubscriber(event.getString("subscriber")).tierChanges++;
+                break;
+            default:
+                //Not a throttler event
+        }
+    }
+
+    private void addCall(RecordedEvent event) {
+        long runNanos = event.getDuration().toNanos();
+        long pendingNanos = event.getLong("pendingNanos");
+        SubscriberEvents subscriber = getSubscriber(event.getString("subscriber"));
+        subscriber.callStarts.add(toNanos(event.getStartTime()));
+        subscriber.pricesCount += event.getInt("pricesCount");
+        subscriber.runNanos.add(runNanos);
+        subscriber.pendingNanos.add(pendingNanos);
+        if (event.getBoolean("failed")) {
+            subscriber.failures++;
+        }
+        String ccyPair = event.getString("ccyPair");
+        if (ccyPair != null) {
+            CcyPairEvents ccyPairEvents = getCcyPair(ccyPair);
+            ccyPairEvents.runNanos.add(runNanos);
+            ccyPairEvents.pendingNanos.add(pendingNanos);
+        }
+    }
+
+    private RecordingReport report() {
+        List<RecordingReport.SubscriberBreakdown> subscriberBreakdowns = new ArrayList<>(subscribers.size());
+        subscribers.forEach((name, events) -> subscriberBreakdowns.add(new RecordingReport.SubscriberBreakdown(name,
+                events.runNanos.size(), events.pricesCount, events.failures, events.overwritten, events.tierChanges,
+                new RecordingReport.Timings(events.pendingNanos), new RecordingReport.Timings(events.getQueueNanos()),
+                new RecordingReport.Timings(events.runNanos))));
+        List<RecordingReport.CcyPairBreakdown> ccyPairBreakdowns = new ArrayList<>(ccyPairs.size());
+        ccyPairs.forEach((ccyPair, events) -> ccyPairBreakdowns.add(new RecordingReport.CcyPairBreakdown(ccyPair,
+                events.ingested, events.overwritten, new RecordingReport.Timings(events.pendingNanos),
+                new RecordingReport.Timings(events.runNanos))));
+
+        return new RecordingReport(subscriberBreakdowns, ccyPairBreakdowns);
+    }
+
+    private SubscriberEvents getSubscriber(String name) {
+        return subscribers.computeIfAbsent(name, key -> new SubscriberEvents());
+    }
+
+    private CcyPairEvents getCcyPair(String ccyPair) {
+        return ccyPairs.computeIfAbsent(ccyPair, key -> new CcyPairEvents());
+    }
+
+    private static long toNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static class SubscriberEvents {
+
+        private final List<Long> dispatches = new ArrayList<>();
+
+        private final List<Long> callStarts = new ArrayList<>();
+
+        private final List<Long> runNanos = new ArrayList<>();
+
+        private final List<Long> pendingNanos = new ArrayList<>();
+
+        private long pricesCount;
+
+        private long failures;
+
+        private long overwritten;
+
+        private long tierChanges;
+
+        /**
+         * Matches every dispatch with the first call started before the next dispatch.
+         */
+        List<Long> getQueueNanos() {
+            Collections.sort(dispatches);
+            Collections.sort(callStarts);
+            List<Long> queueNanos = new ArrayList<>(dispatches.size());
+            int call = 0;
+            for (int i = 0; i < dispatches.size(); ++i) {
+                long dispatch = dispatches.get(i);
+                while (call < callStarts.size() && callStarts.get(call) < dispatch) {
+                    ++call;
+                }
+                if (call == callStarts.size()) {
+                    break;
+                }
+                if (i + 1 == dispatches.size() || callStarts.get(call) < dispatches.get(i + 1)) {
+                    queueNanos.add(callStarts.get(call) - dispatch);
+                }
+            }
+
+            return queueNanos;
+        }
+    }
+
+    private static class CcyPairEvents {
+
+        private final List<Long> runNanos = new ArrayList<>();
+
+        private final List<Long> pendingNanos = new ArrayList<>();
+
+        private long ingested;
+
+        private long overwritten;
+    }
+}
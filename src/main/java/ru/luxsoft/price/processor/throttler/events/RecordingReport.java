@@ -0,0 +1,238 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import java.util.List;
+
+/**
+ * Latency breakdown of a flight recording, see {@link RecordingAnalyzer}. Times are in nanoseconds.
+ */
+public class RecordingReport {
+
+    private final List<SubscriberBreakdown> subscribers;
+
+    private final List<CcyPairBreakdown> ccyPairs;
+
+    RecordingReport(List<SubscriberBreakdown> subscribers, List<CcyPairBreakdown> ccyPairs) {
+        this.subscribers = List.copyOf(subscribers);
+        this.ccyPairs = List.copyOf(ccyPairs);
+    }
+
+    public List<SubscriberBreakdown> getSubscribers() {
+        return subscribers;
+    }
+
+    public List<CcyPairBreakdown> getCcyPairs() {
+        return ccyPairs;
+    }
+
+    /**
+     * @return the breakdown of the subscriber or null if it has no events
+     */
+    public SubscriberBreakdown getSubscriber(String name) {
+        return subscribers.stream().filter(subscriber -> subscriber.name.equals(name)).findFirst().orElse(null);
+    }
+
+    /**
+     * @return the breakdown of the ccyPair or null if it has no events
+     */
+    public CcyPairBreakdown getCcyPair(String ccyPair) {
+        return ccyPairs.stream().filter(breakdown -> breakdown.ccyPair.equals(ccyPair)).findFirst().orElse(null);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (SubscriberBreakdown subscriber : subscribers) {
+            result.append(subscriber).append(System.lineSeparator());
+        }
+        for (CcyPairBreakdown ccyPair : ccyPairs) {
+            result.append(ccyPair).append(System.lineSeparator());
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Exact percentiles of recorded times.
+     */
+    public static class Timings {
+
+        private final long[] sortedNanos;
+
+        Timings(List<Long> nanos) {
+            this.sortedNanos = nanos.stream().mapToLong(Long::longValue).sorted().toArray();
+        }
+
+        public int getCount() {
+            return sortedNanos.length;
+        }
+
+        /**
+         * @return the time at the percentile, from 0 to 100, or 0 if there are no times
+         */
+        public long getPercentileInNanos(double percentile) {
+            if (sortedNanos.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(sortedNanos.length * percentile / 100);
+
+            return sortedNanos[Math.max(0, Math.min(sortedNanos.length, rank) - 1)];
+        }
+
+        public long getP50InNanos() {
+            return getPercentileInNanos(50);
+        }
+
+        public long getP99InNanos() {
+            return getPercentileInNanos(99);
+        }
+
+        public long getMaxInNanos() {
+            return getPercentileInNanos(100);
+        }
+
+        @Override
+        public String toString() {
+            return getP50InNanos() + "/" + getP99InNanos() + "/" + getMaxInNanos();
+        }
+    }
+
+    public static class SubscriberBreakdown {
+
+        private final String name;
+
+        private final long calls;
+
+        private final long prices;
+
+        private final long failures;
+
+        private final long overwritten;
+
+        private final long tierChanges;
+
+        private final Timings pending;
+
+        private final Timings queue;
+
+        private final Timings onPrice;
+
+        SubscriberBreakdown(String name, long calls, long prices, long failures, long overwritten, long tierChanges,
+                            Timings pending, Timings queue, Timings onPrice) {
+            this.name = name;
+            this.calls = calls;
+            this.prices = prices;
+            this.failures = failures;
+            this.overwritten = overwritten;
+            this.tierChanges = tierChanges;
+            this.pending = pending;
+            this.queue = queue;
+            this.onPrice = onPrice;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getPrices() {
+            return prices;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return count of prices overwritten in the conflation store before the subscriber got them
+         */
+        public long getOverwritten() {
+            return overwritten;
+        }
+
+        public long getTierChanges() {
+            return tierChanges;
+        }
+
+        /**
+         * @return age of the oldest delivered tick when calls started
+         */
+        public Timings getPending() {
+            return pending;
+        }
+
+        /**
+         * @return time from a dispatch to the next call
+         */
+        public Timings getQueue() {
+            return queue;
+        }
+
+        public Timings getOnPrice() {
+            return onPrice;
+        }
+
+        @Override
+        public String toString() {
+            return "Subscriber " + name + " calls " + calls + " prices " + prices + " failures " + failures
+                    + " overwritten " + overwritten + " tier changes " + tierChanges + " p50/p99/max ns pending "
+                    + pending + " queue " + queue + " onPrice " + onPrice;
+        }
+    }
+
+    public static class CcyPairBreakdown {
+
+        private final String ccyPair;
+
+        private final long ingested;
+
+        private final long overwritten;
+
+        private final Timings pending;
+
+        private final Timings onPrice;
+
+        CcyPairBreakdown(String ccyPair, long ingested, long overwritten, Timings pending, Timings onPrice) {
+            this.ccyPair = ccyPair;
+            this.ingested = ingested;
+            this.overwritten = overwritten;
+            this.pending = pending;
+            this.onPrice = onPrice;
+        }
+
+        public String getCcyPair() {
+            return ccyPair;
+        }
+
+        public long getIngested() {
+            return ingested;
+        }
+
+        /**
+         * @return count of prices overwritten in conflation stores of all subscribers
+         */
+        public long getOverwritten() {
+            return overwritten;
+        }
+
+        /**
+         * @return age of the oldest delivered tick when calls started, batch calls aren't counted
+         */
+        public Timings getPending() {
+            return pending;
+        }
+
+        public Timings getOnPrice() {
+            return onPrice;
+        }
+
+        @Override
+        public String toString() {
+            return "CcyPair " + ccyPair + " ingested " + ingested + " overwritten " + overwritten
+                    + " deliveries " + onPrice.getCount() + " p50/p99/max ns pending " + pending
+                    + " onPrice " + onPrice;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import jdk.jfr.Recording;
+
+import java.time.Duration;
+
+/**
+ * Flight recorder events of the throttler. We need these to tell whether a latency spike has gone to conflation,
+ * to the ready queue or to the subscriber's own onPrice.
+ *
+ * Events are emitted only while a recording has them enabled, otherwise they cost a check of a flag: per-tick and
+ * per-delivery events aren't even allocated then. Per-tick events and delivery dispatches are disabled by default
+ * and delivery completions are recorded above a one millisecond threshold only, so a default recording in
+ * production catches spikes. Enable them all for a latency breakdown with {@link #enable(Recording, Duration)} or
+ * in a .jfc file, then read the recording with {@link RecordingAnalyzer}.
+ */
+public final class ThrottlerEvents {
+
+    public static final String CATEGORY = "Price Throttler";
+
+    public static final String PRICE_INGESTED = "ru.luxsoft.price.PriceIngested";
+
+    public static final String PRICE_CONFLATED = "ru.luxsoft.price.PriceConflated";
+
+    public static final String DELIVERY_DISPATCHED = "ru.luxsoft.price.DeliveryDispatched";
+
+    public static final String DELIVERY_COMPLETED = "ru.luxsoft.price.DeliveryCompleted";
+
+    public static final String TIER_CHANGED = "ru.luxsoft.price.TierChanged";
+
+    private ThrottlerEvents() {
+    }
+
+    /**
+     * Enables all throttler events in the recording.
+     *
+     * @param deliveryThreshold calls shorter than this aren't recorded, zero records every call
+     */
+    public static void enable(Recording recording, Duration deliveryThreshold) {
+        recording.enable(PriceIngestedEvent.class);
+        recording.enable(PriceConflatedEvent.class);
+        recording.enable(DeliveryDispatchedEvent.class);
+        recording.enable(DeliveryCompletedEvent.class).withThreshold(deliveryThreshold);
+        recording.enable(TierChangedEvent.class);
+    }
+}
@@ -0,0 +1,34 @@
+package ru.luxsoft.price.processor.throttler.events;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The rapidity resolver has moved a subscriber to another tier.
+ */
+@Name(ThrottlerEvents.TIER_CHANGED)
+@Label("Tier Changed")
+@Category(ThrottlerEvents.CATEGORY)
+@Description("A subscriber has moved to another rapidity tier")
+@StackTrace(false)
+public class TierChangedEvent extends Event {
+
+    @Label("Subscriber")
+    public String subscriber;
+
+    @Label("From")
+    public String from;
+
+    @Label("To")
+    public String to;
+
+    @Label("Run Time")
+    @Description("Run time of the call which has changed the tier")
+    @Timespan(Timespan.NANOSECONDS)
+    public long runNanos;
+}
@@ -0,0 +1,109 @@
+package ru.luxsoft.price.processor.throttler.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in power of two buckets of nanoseconds. Bucket i holds latencies from 2^(i-1) to
+ * 2^i - 1 nanoseconds. We need this because the buckets are fixed, so recording a latency is a single increment
+ * without allocation, and percentiles are still precise within a factor of two.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS_COUNT = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_COUNT);
+
+    public void record(long latencyInNanos) {
+        buckets.incrementAndGet(bucket(latencyInNanos));
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS_COUNT];
+        for (int i = 0; i < BUCKETS_COUNT; ++i) {
+            counts[i] = buckets.get(i);
+        }
+
+        return new Snapshot(counts);
+    }
+
+    private static int bucket(long latencyInNanos) {
+        return latencyInNanos <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(latencyInNanos);
+    }
+
+    /**
+     * Immutable copy of the histogram. Snapshots can be rebuilt from their bucket counts and merged, e.g. to get
+     * percentiles over several subscribers or several reads.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        /**
+         * @param counts - latencies count of every bucket, as returned by {@link #getBucketCounts()}
+         */
+        public Snapshot(long[] counts) {
+            if (counts.length != BUCKETS_COUNT) {
+                throw new IllegalArgumentException("Buckets count must be " + BUCKETS_COUNT + ": " + counts.length);
+            }
+            this.counts = counts.clone();
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            this.count = count;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return latencies count of every bucket, bucket i holds latencies from 2^(i-1) to 2^i - 1 nanoseconds
+         */
+        public long[] getBucketCounts() {
+            return counts.clone();
+        }
+
+        /**
+         * @return the snapshot holding the latencies of both snapshots
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKETS_COUNT];
+            for (int i = 0; i < BUCKETS_COUNT; ++i) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+
+            return new Snapshot(merged);
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the percentile or 0 if there are no latencies
+         */
+        public long getPercentileInNanos(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+
+            return 0;
+        }
+
+        public long getP50InNanos() {
+            return getPercentileInNanos(50);
+        }
+
+        public long getP99InNanos() {
+            return getPercentileInNanos(99);
+        }
+
+        public long getMaxInNanos() {
+            return getPercentileInNanos(100);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package ru.luxsoft.price.processor.throttler.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable throttler metrics at some moment.
+ */
+public class MetricsSnapshot {
+
+    private final List<SubscriberStats> subscribers;
+
+    private final List<CcyPairStats> ccyPairs;
+
+    public MetricsSnapshot(List<SubscriberStats> subscribers, List<CcyPairStats> ccyPairs) {
+        this.subscribers = List.copyOf(subscribers);
+        this.ccyPairs = List.copyOf(ccyPairs);
+    }
+
+    public List<SubscriberStats> getSubscribers() {
+        return subscribers;
+    }
+
+    public List<CcyPairStats> getCcyPairs() {
+        return ccyPairs;
+    }
+
+    /**
+     * @return delivery thread time spent in calls of subscribers by their priority class
+     */
+    public Map<String, Long> getThreadTimeByPriorityClass() {
+        Map<String, Long> threadTimes = new TreeMap<>();
+        for (SubscriberStats subscriber : subscribers) {
+            threadTimes.merge(subscriber.priorityClass, subscriber.threadTimeInNanos, Long::sum);
+        }
+
+        return threadTimes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (SubscriberStats subscriber : subscribers) {
+            result.append(subscriber).append(System.lineSeparator());
+        }
+        getThreadTimeByPriorityClass().forEach((priorityClass, threadTime) -> result
+                .append("Priority class ").append(priorityClass).append(" thread time ns ").append(threadTime)
+                .append(System.lineSeparator()));
+        for (CcyPairStats ccyPair : ccyPairs) {
+            result.append(ccyPair).append(System.lineSeparator());
+        }
+
+        return result.toString();
+    }
+
+    public static class SubscriberStats {
+
+        private final String name;
+
+        private final String tier;
+
+        private final String priorityClass;
+
+        private final int weight;
+
+        private final long delivered;
+
+        private final long conflated;
+
+        private final long filtered;
+
+        private final int pendingPrices;
+
+        private final long stalenessBreaches;
+
+        private final long failures;
+
+        private final long deadlineBreaches;
+
+        private final boolean quarantined;
+
+        private final boolean circuitOpen;
+
+        private final long threadTimeInNanos;
+
+        private final LatencyHistogram.Snapshot onPriceLatency;
+
+        public SubscriberStats(String name, String tier, String priorityClass, int weight, long delivered,
+                               long conflated, long filtered, int pendingPrices, long stalenessBreaches,
+                               long failures, long deadlineBreaches, boolean quarantined, boolean circuitOpen,
+                               long threadTimeInNanos, LatencyHistogram.Snapshot onPriceLatency) {
+            this.name = name;
+            this.tier = tier;
+            this.priorityClass = priorityClass;
+            this.weight = weight;
+            this.delivered = delivered;
+            this.conflated = conflated;
+            this.filtered = filtered;
+            this.pendingPrices = pendingPrices;
+            this.stalenessBreaches = stalenessBreaches;
+            this.failures = failures;
+            this.deadlineBreaches = deadlineBreaches;
+            this.quarantined = quarantined;
+            this.circuitOpen = circuitOpen;
+            this.threadTimeInNanos = threadTimeInNanos;
+            this.onPriceLatency = onPriceLatency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTier() {
+            return tier;
+        }
+
+        public String getPriorityClass() {
+            return priorityClass;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getConflated() {
+            return conflated;
+        }
+
+        /**
+         * @return count of prices deferred by the subscriber delivery filter
+         */
+        public long getFiltered() {
+            return filtered;
+        }
+
+        public int getPendingPrices() {
+            return pendingPrices;
+        }
+
+        public long getStalenessBreaches() {
+            return stalenessBreaches;
+        }
+
+        /**
+         * @return count of subscriber calls which have thrown
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getDeadlineBreaches() {
+            return deadlineBreaches;
+        }
+
+        public boolean isQuarantined() {
+            return quarantined;
+        }
+
+        public boolean isCircuitOpen() {
+            return circuitOpen;
+        }
+
+        /**
+         * @return delivery thread time spent in calls of the subscriber
+         */
+        public long getThreadTimeInNanos() {
+            return threadTimeInNanos;
+        }
+
+        public long getOnPriceLatencyP50InNanos() {
+            return onPriceLatency.getP50InNanos();
+        }
+
+        public long getOnPriceLatencyP99InNanos() {
+            return onPriceLatency.getP99InNanos();
+        }
+
+        public long getOnPriceLatencyMaxInNanos() {
+            return onPriceLatency.getMaxInNanos();
+        }
+
+        /**
+         * @return onPrice latencies count of every {@link LatencyHistogram} bucket, so JMX clients can merge
+         * the histograms of several subscribers or reads with {@link LatencyHistogram.Snapshot#merge}
+         */
+        public long[] getOnPriceLatencyBucketCounts() {
+            return onPriceLatency.getBucketCounts();
+        }
+
+        @Override
+        public String toString() {
+            return "Subscriber " + name + " tier " + tier + " priority class " + priorityClass + " weight " + weight
+                    + " delivered " + delivered + " conflated " + conflated + " filtered " + filtered
+                    + " pending " + pendingPrices + " staleness breaches " + stalenessBreaches + " failures " + failures
+                    + " deadline breaches " + deadlineBreaches + (quarantined ? " quarantined" : "")
+                    + (circuitOpen ? " circuit open" : "") + " thread time ns " + threadTimeInNanos
+                    + " onPrice p50/p99/max ns " + onPriceLatency.getP50InNanos() + "/"
+                    + onPriceLatency.getP99InNanos() + "/" + onPriceLatency.getMaxInNanos();
+        }
+    }
+
+    public static class CcyPairStats {
+
+        private final String ccyPair;
+
+        private final long ticks;
+
+        private final double tickRate;
+
+        private final long worstStalenessInNanos;
+
+        private final long maxAgeInNanos;
+
+        private final long stalenessBreaches;
+
+        public CcyPairStats(String ccyPair, long ticks, double tickRate, long worstStalenessInNanos,
+                            long maxAgeInNanos, long stalenessBreaches) {
+            this.ccyPair = ccyPair;
+            this.ticks = ticks;
+            this.tickRate = tickRate;
+            this.worstStalenessInNanos = worstStalenessInNanos;
+            this.maxAgeInNanos = maxAgeInNanos;
+            this.stalenessBreaches = stalenessBreaches;
+        }
+
+        public String getCcyPair() {
+            return ccyPair;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * @return current ticks per second
+         */
+        public double getTickRate() {
+            return tickRate;
+        }
+
+        /**
+         * @return the age of the oldest not published tick among all subscribers, 0 if every subscriber is up to date
+         */
+        public long getWorstStalenessInNanos() {
+            return worstStalenessInNanos;
+        }
+
+        /**
+         * @return max age of a not published price, 0 if there is no limit
+         */
+        public long getMaxAgeInNanos() {
+            return maxAgeInNanos;
+        }
+
+        /**
+         * @return how many times a price has been published to a subscriber later than its max age
+         */
+        public long getStalenessBreaches() {
+            return stalenessBreaches;
+        }
+
+        @Override
+        public String toString() {
+            return "CcyPair " + ccyPair + " ticks " + ticks + " tick rate " + String.format("%.3f", tickRate)
+                    + " worst staleness ns " + worstStalenessInNanos + " max age ns " + maxAgeInNanos
+                    + " staleness breaches " + stalenessBreaches;
+        }
+    }
+}
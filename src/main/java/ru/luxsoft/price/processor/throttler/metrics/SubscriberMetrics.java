@@ -0,0 +1,90 @@
+package ru.luxsoft.price.processor.throttler.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects live metrics of one subscriber. Conflations are counted by producer threads, so they are
+ * striped {@link LongAdder}s. Deliveries are counted by the one thread delivering to the subscriber.
+ */
+public class SubscriberMetrics {
+
+    private final LongAdder delivered = new LongAdder();
+
+    private final LongAdder conflated = new LongAdder();
+
+    private final LongAdder filtered = new LongAdder();
+
+    private final LongAdder stalenessBreaches = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder deadlineBreaches = new LongAdder();
+
+    private final LatencyHistogram onPriceLatency = new LatencyHistogram();
+
+    private final LongAdder threadTimeInNanos = new LongAdder();
+
+    public void onConflated() {
+        conflated.increment();
+    }
+
+    public void onDelivered(int pricesCount, long latencyInNanos) {
+        delivered.add(pricesCount);
+        onPriceLatency.record(latencyInNanos);
+    }
+
+    public void onFiltered() {
+        filtered.increment();
+    }
+
+    public void onStalenessBreach() {
+        stalenessBreaches.increment();
+    }
+
+    public void onFailure() {
+        failures.increment();
+    }
+
+    public void onDeadlineBreach() {
+        deadlineBreaches.increment();
+    }
+
+    /**
+     * Counts the time a delivery thread has spent in a call of the subscriber, failed calls included.
+     */
+    public void addThreadTime(long runTimeInNanos) {
+        threadTimeInNanos.add(runTimeInNanos);
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getConflated() {
+        return conflated.sum();
+    }
+
+    public long getFiltered() {
+        return filtered.sum();
+    }
+
+    public long getStalenessBreaches() {
+        return stalenessBreaches.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getDeadlineBreaches() {
+        return deadlineBreaches.sum();
+    }
+
+    public long getThreadTimeInNanos() {
+        return threadTimeInNanos.sum();
+    }
+
+    public LatencyHistogram getOnPriceLatency() {
+        return onPriceLatency;
+    }
+}
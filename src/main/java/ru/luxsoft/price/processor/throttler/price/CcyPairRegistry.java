@@ -0,0 +1,68 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class gives every ccyPair a dense id the first time the ccyPair is seen. We need this to keep per ccyPair
+ * state in primitive arrays indexed by the id instead of maps of objects.
+ */
+public class CcyPairRegistry {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<String> ccyPairs;
+
+    private volatile int size;
+
+    public CcyPairRegistry(int capacity) {
+        this.ccyPairs = new AtomicReferenceArray<>(capacity);
+    }
+
+    public int getOrRegister(String ccyPair) {
+        Integer id = ids.get(ccyPair);
+        if (id != null) {
+            return id;
+        }
+
+        return register(ccyPair);
+    }
+
+    /**
+     * @return the ccyPair id or -1 if the ccyPair has never been seen
+     */
+    public int getId(String ccyPair) {
+        Integer id = ids.get(ccyPair);
+
+        return id == null ? -1 : id;
+    }
+
+    public String getCcyPair(int id) {
+        return ccyPairs.get(id);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ccyPairs.length();
+    }
+
+    private synchronized int register(String ccyPair) {
+        Integer id = ids.get(ccyPair);
+        if (id != null) {
+            return id;
+        }
+        if (size == ccyPairs.length()) {
+            throw new IllegalStateException("Too many ccy pairs, capacity is " + ccyPairs.length());
+        }
+        id = size;
+        ccyPairs.set(id, ccyPair);
+        size = id + 1;
+        ids.put(ccyPair, id);
+
+        return id;
+    }
+}
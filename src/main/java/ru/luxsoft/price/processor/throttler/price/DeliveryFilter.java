@@ -0,0 +1,160 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class decides for one subscriber whether a new price is worth a delivery. We need this because slow subscribers
+ * like print-outs don't care about moves smaller than a pip, and every delivery to them costs a lot of thread time.
+ *
+ * A price is delivered if its change against the last delivered rate reaches the min absolute and min relative changes
+ * and the min interval since the last delivery of the ccyPair has passed. Other prices are deferred, not dropped:
+ * a deferred ccyPair becomes pending when its interval passes or, for an insignificant change, after the final value
+ * delay. So the final rate of every ccyPair always reaches the subscriber.
+ *
+ * Min absolute changes are resolved by ccyPair name once, on the first lookup by id. The subscriber thread records
+ * deliveries, any number of threads may check prices. The earliest due time of all deferred ccyPairs is kept apart,
+ * so the watchdog scans the ccyPairs only when some of them are due.
+ */
+public class DeliveryFilter {
+
+    private static final long NOT_DEFERRED = Long.MAX_VALUE;
+
+    private static final long UNRESOLVED = -1;
+
+    private final double defaultMinAbsoluteChange;
+
+    private final Map<String, Double> minAbsoluteChanges;
+
+    private final double minRelativeChange;
+
+    private final long minIntervalInNanos;
+
+    private final long finalValueDelayInNanos;
+
+    private final AtomicLongArray resolvedMinAbsoluteChanges;
+
+    private final AtomicLongArray deliveredRates;
+
+    private final AtomicLongArray deliveredNanos;
+
+    private final AtomicLongArray deferredUntilNanos;
+
+    private final AtomicLong nextDueNanos = new AtomicLong(NOT_DEFERRED);
+
+    /**
+     * @param defaultMinAbsoluteChange - min absolute change of ccyPairs without own one, zero means any change
+     * @param minAbsoluteChanges - own min absolute changes of ccyPairs
+     * @param minRelativeChange - min change relative to the last delivered rate, zero means any change
+     * @param minIntervalInMillis - min time between deliveries of a ccyPair, zero means no limit
+     * @param finalValueDelayInMillis - time after which a deferred insignificant change is delivered anyway
+     */
+    public DeliveryFilter(int ccyPairsCapacity, double defaultMinAbsoluteChange, Map<String, Double> minAbsoluteChanges,
+                          double minRelativeChange, long minIntervalInMillis, long finalValueDelayInMillis) {
+        this.defaultMinAbsoluteChange = defaultMinAbsoluteChange;
+        this.minAbsoluteChanges = new HashMap<>(minAbsoluteChanges);
+        this.minRelativeChange = minRelativeChange;
+        this.minIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalInMillis);
+        this.finalValueDelayInNanos = TimeUnit.MILLISECONDS.toNanos(finalValueDelayInMillis);
+        this.resolvedMinAbsoluteChanges = new AtomicLongArray(ccyPairsCapacity);
+        this.deliveredRates = new AtomicLongArray(ccyPairsCapacity);
+        this.deliveredNanos = new AtomicLongArray(ccyPairsCapacity);
+        this.deferredUntilNanos = new AtomicLongArray(ccyPairsCapacity);
+        for (int i = 0; i < ccyPairsCapacity; ++i) {
+            resolvedMinAbsoluteChanges.set(i, UNRESOLVED);
+            deliveredRates.set(i, Double.doubleToRawLongBits(Double.NaN));
+            deferredUntilNanos.set(i, NOT_DEFERRED);
+        }
+    }
+
+    /**
+     * Checks the new price of the ccyPair and defers it if it isn't worth a delivery now.
+     *
+     * @return true if the ccyPair has to become pending
+     */
+    public boolean accept(int id, double rate, long nanoTime, CcyPairRegistry ccyPairRegistry) {
+        double deliveredRate = Double.longBitsToDouble(deliveredRates.get(id));
+        if (Double.isNaN(deliveredRate)) {
+            return true;
+        }
+        double change = Math.abs(rate - deliveredRate);
+        boolean significant = change >= getMinAbsoluteChange(id, ccyPairRegistry)
+                && change >= minRelativeChange * Math.abs(deliveredRate);
+        long intervalEnd = deliveredNanos.get(id) + minIntervalInNanos;
+        if (significant && nanoTime - intervalEnd >= 0) {
+            return true;
+        }
+
+        //Keeps the earliest due time, so a jittering ccyPair can't put its final value off forever
+        long deferredUntil = significant ? intervalEnd : nanoTime + finalValueDelayInNanos;
+        deferredUntilNanos.accumulateAndGet(id, deferredUntil, Math::min);
+        nextDueNanos.accumulateAndGet(deferredUntil, Math::min);
+        return false;
+    }
+
+    /**
+     * Makes deferred ccyPairs which are due pending, unless their rate is delivered already.
+     *
+     * @return count of ccyPairs which have become pending
+     */
+    public int promoteDue(PendingPrices pendingPrices, PriceTable priceTable, long nanoTime) {
+        long nextDue = nextDueNanos.get();
+        if (nextDue == NOT_DEFERRED || nanoTime - nextDue < 0) {
+            return 0;
+        }
+
+        //Checks deferring after the reset add their due times themselves, earlier ones are seen by the scan below
+        nextDueNanos.set(NOT_DEFERRED);
+        int promoted = 0;
+        int ccyPairsCount = priceTable.getCcyPairRegistry().size();
+        for (int i = 0; i < ccyPairsCount; ++i) {
+            long deferredUntil = deferredUntilNanos.get(i);
+            if (deferredUntil == NOT_DEFERRED) {
+                continue;
+            }
+            if (nanoTime - deferredUntil < 0) {
+                nextDueNanos.accumulateAndGet(deferredUntil, Math::min);
+                continue;
+            }
+            //The ccyPair may have been delivered after it was deferred
+            long intervalEnd = deliveredNanos.get(i) + minIntervalInNanos;
+            if (nanoTime - intervalEnd < 0) {
+                if (deferredUntilNanos.compareAndSet(i, deferredUntil, intervalEnd)) {
+                    nextDueNanos.accumulateAndGet(intervalEnd, Math::min);
+                }
+                continue;
+            }
+            if (!deferredUntilNanos.compareAndSet(i, deferredUntil, NOT_DEFERRED)) {
+                continue;
+            }
+            if (priceTable.getRate(i) != Double.longBitsToDouble(deliveredRates.get(i))) {
+                pendingPrices.put(i, nanoTime);
+                ++promoted;
+            }
+        }
+
+        return promoted;
+    }
+
+    /**
+     * Remembers the rate taken for delivery to the subscriber.
+     */
+    public void onDelivered(int id, double rate, long nanoTime) {
+        deliveredRates.set(id, Double.doubleToRawLongBits(rate));
+        deliveredNanos.set(id, nanoTime);
+    }
+
+    private double getMinAbsoluteChange(int id, CcyPairRegistry ccyPairRegistry) {
+        long minAbsoluteChange = resolvedMinAbsoluteChanges.get(id);
+        if (minAbsoluteChange == UNRESOLVED) {
+            minAbsoluteChange = Double.doubleToRawLongBits(minAbsoluteChanges.getOrDefault(
+                    ccyPairRegistry.getCcyPair(id), defaultMinAbsoluteChange));
+            resolvedMinAbsoluteChanges.set(id, minAbsoluteChange);
+        }
+
+        return Double.longBitsToDouble(minAbsoluteChange);
+    }
+}
@@ -0,0 +1,150 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class is a fixed array of longs with volatile and atomic access, on the heap or off it. We need this because
+ * per-subscriber and per-ccyPair state grows as subscribers times ccyPairs. Off the heap it costs the collector
+ * nothing to copy or mark however many subscribers and ccyPairs there are.
+ *
+ * Off-heap slots live in a direct buffer which is freed when the slots are collected.
+ */
+public abstract class LongSlots {
+
+    private final int length;
+
+    LongSlots(int length) {
+        this.length = length;
+    }
+
+    /**
+     * @param offHeap true to keep the slots in native memory, otherwise in a plain long array
+     */
+    public static LongSlots allocate(int length, boolean offHeap) {
+        return offHeap ? new OffHeapLongSlots(length) : new HeapLongSlots(length);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void fill(long value) {
+        for (int i = 0; i < length; ++i) {
+            set(i, value);
+        }
+    }
+
+    public abstract long get(int index);
+
+    public abstract void set(int index, long value);
+
+    public abstract boolean compareAndSet(int index, long expected, long value);
+
+    public abstract long getAndSet(int index, long value);
+
+    public abstract long incrementAndGet(int index);
+
+    public abstract long getAndBitwiseOr(int index, long mask);
+
+    public abstract long getAndBitwiseAnd(int index, long mask);
+
+    private static class HeapLongSlots extends LongSlots {
+
+        private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
+        private final long[] slots;
+
+        HeapLongSlots(int length) {
+            super(length);
+            this.slots = new long[length];
+        }
+
+        @Override
+        public long get(int index) {
+            return (long) SLOTS.getVolatile(slots, index);
+        }
+
+        @Override
+        public void set(int index, long value) {
+            SLOTS.setVolatile(slots, index, value);
+        }
+
+        @Override
+        public boolean compareAndSet(int index, long expected, long value) {
+            return SLOTS.compareAndSet(slots, index, expected, value);
+        }
+
+        @Override
+        public long getAndSet(int index, long value) {
+            return (long) SLOTS.getAndSet(slots, index, value);
+        }
+
+        @Override
+        public long incrementAndGet(int index) {
+            return (long) SLOTS.getAndAdd(slots, index, 1L) + 1;
+        }
+
+        @Override
+        public long getAndBitwiseOr(int index, long mask) {
+            return (long) SLOTS.getAndBitwiseOr(slots, index, mask);
+        }
+
+        @Override
+        public long getAndBitwiseAnd(int index, long mask) {
+            return (long) SLOTS.getAndBitwiseAnd(slots, index, mask);
+        }
+    }
+
+    private static class OffHeapLongSlots extends LongSlots {
+
+        private static final VarHandle SLOTS = MethodHandles.byteBufferViewVarHandle(long[].class,
+                ByteOrder.nativeOrder());
+
+        private final ByteBuffer slots;
+
+        OffHeapLongSlots(int length) {
+            super(length);
+            //Atomic access needs slots aligned to eight bytes
+            this.slots = ByteBuffer.allocateDirect(length * Long.BYTES + Long.BYTES).alignedSlice(Long.BYTES)
+                    .order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public long get(int index) {
+            return (long) SLOTS.getVolatile(slots, index * Long.BYTES);
+        }
+
+        @Override
+        public void set(int index, long value) {
+            SLOTS.setVolatile(slots, index * Long.BYTES, value);
+        }
+
+        @Override
+        public boolean compareAndSet(int index, long expected, long value) {
+            return SLOTS.compareAndSet(slots, index * Long.BYTES, expected, value);
+        }
+
+        @Override
+        public long getAndSet(int index, long value) {
+            return (long) SLOTS.getAndSet(slots, index * Long.BYTES, value);
+        }
+
+        @Override
+        public long incrementAndGet(int index) {
+            return (long) SLOTS.getAndAdd(slots, index * Long.BYTES, 1L) + 1;
+        }
+
+        @Override
+        public long getAndBitwiseOr(int index, long mask) {
+            return (long) SLOTS.getAndBitwiseOr(slots, index * Long.BYTES, mask);
+        }
+
+        @Override
+        public long getAndBitwiseAnd(int index, long mask) {
+            return (long) SLOTS.getAndBitwiseAnd(slots, index * Long.BYTES, mask);
+        }
+    }
+}
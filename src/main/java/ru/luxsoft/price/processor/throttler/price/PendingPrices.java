@@ -0,0 +1,140 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+/**
+ * This class holds ccyPairs which are not yet published to one subscriber. We need this because only the last price
+ * of each ccyPair matters. Every ccyPair has its own slot, so a new price just marks the slot and the rate itself is
+ * taken from {@link PriceTable} at publishing time. The subscriber takes ccyPairs from the slots without locks,
+ * rare ccyPairs first, but prices older than their max age before everything else.
+ *
+ * A pending slot holds the time of the oldest not published tick, so the subscriber staleness is known. A dense
+ * bitset marks pending slots, so looking for the next ccyPair costs a bit scan per pending ccyPair and a word read
+ * per 64 ccyPairs instead of a read of every slot. Slots and bits may live off the heap, see {@link LongSlots}.
+ *
+ * Only one thread at a time may poll ccyPairs, any number of threads may put them.
+ */
+public class PendingPrices {
+
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    private final LongSlots slots;
+
+    //Bit of a ccyPair is set after its slot and cleared before it
+    private final LongSlots pendingBits;
+
+    public PendingPrices(int ccyPairsCapacity) {
+        this(ccyPairsCapacity, false);
+    }
+
+    public PendingPrices(int ccyPairsCapacity, boolean offHeap) {
+        this.slots = LongSlots.allocate(ccyPairsCapacity, offHeap);
+        this.pendingBits = LongSlots.allocate((ccyPairsCapacity + Long.SIZE - 1) / Long.SIZE, offHeap);
+        slots.fill(EMPTY);
+    }
+
+    /**
+     * @return false if the ccyPair was pending already, so the previous price is conflated
+     */
+    public boolean put(int ccyPairId, long nanoTime) {
+        if (slots.get(ccyPairId) == EMPTY && slots.compareAndSet(ccyPairId, EMPTY, nanoTime)) {
+            pendingBits.getAndBitwiseOr(ccyPairId / Long.SIZE, 1L << ccyPairId);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Marks every ccyPair which has a price in the table, so a new subscriber gets the current book. Rates
+     * themselves stay in the table, nothing is copied.
+     */
+    public void putAll(PriceTable priceTable, long nanoTime) {
+        int ccyPairsCount = priceTable.getCcyPairRegistry().size();
+        for (int i = 0; i < ccyPairsCount; ++i) {
+            if (priceTable.hasPrice(i)) {
+                put(i, nanoTime);
+            }
+        }
+    }
+
+    /**
+     * @return the time of the oldest not published tick of the ccyPair or {@link #EMPTY}
+     */
+    public long getPendingSince(int ccyPairId) {
+        return slots.get(ccyPairId);
+    }
+
+    /**
+     * Finds the pending ccyPair to publish next: the most overdue one of ccyPairs older than their max age,
+     * otherwise the one with the lowest priority.
+     *
+     * @return the ccyPair id or -1 if there are no pending prices
+     */
+    public int peek(PriceTable priceTable, long nanoTime) {
+        int next = -1;
+        double nextPriority = Double.MAX_VALUE;
+        int overdue = -1;
+        long overdueBy = 0;
+        for (int word = 0; word < pendingBits.length(); ++word) {
+            for (long bits = pendingBits.get(word); bits != 0; bits &= bits - 1) {
+                int i = word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                long pendingSince = slots.get(i);
+                if (pendingSince == EMPTY) {
+                    continue;
+                }
+                long maxAge = priceTable.getMaxAgeInNanos(i);
+                if (maxAge > 0 && nanoTime - pendingSince - maxAge >= overdueBy) {
+                    overdue = i;
+                    overdueBy = nanoTime - pendingSince - maxAge;
+                }
+                double priority = priceTable.getPriority(i);
+                if (next == -1 || priority < nextPriority) {
+                    next = i;
+                    nextPriority = priority;
+                }
+            }
+        }
+
+        return overdue != -1 ? overdue : next;
+    }
+
+    /**
+     * @return the smallest pending ccyPair id not less than the given one or -1 if there is none
+     */
+    public int nextPending(int fromId) {
+        int word = fromId / Long.SIZE;
+        if (word >= pendingBits.length()) {
+            return -1;
+        }
+        long bits = pendingBits.get(word) & (-1L << fromId);
+        while (bits == 0) {
+            if (++word == pendingBits.length()) {
+                return -1;
+            }
+            bits = pendingBits.get(word);
+        }
+
+        return word * Long.SIZE + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * Removes the ccyPair from pending ones. Take only ccyPairs found by {@link #peek} or {@link #nextPending}: the
+     * bit of a ccyPair found by its slot may be still on its way.
+     *
+     * @return the time of the oldest not published tick of the ccyPair or {@link #EMPTY}
+     */
+    public long take(int ccyPairId) {
+        //A put after the slot is emptied sets the bit again
+        pendingBits.getAndBitwiseAnd(ccyPairId / Long.SIZE, ~(1L << ccyPairId));
+
+        return slots.getAndSet(ccyPairId, EMPTY);
+    }
+
+    public int size() {
+        int size = 0;
+        for (int word = 0; word < pendingBits.length(); ++word) {
+            size += Long.bitCount(pendingBits.get(word));
+        }
+
+        return size;
+    }
+}
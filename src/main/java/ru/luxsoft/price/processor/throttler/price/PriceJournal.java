@@ -0,0 +1,368 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class keeps the last rate, its time and the tick rate of every ccyPair in a memory-mapped file. We need this
+ * because after a restart rare ccyPairs stay blank until they tick again.
+ *
+ * The file has a header and a fixed size record per ccyPair id. A record is updated in place: a writer makes its
+ * sequence odd with a CAS, writes the fields and the checksum and makes the sequence even again. Writes go to the
+ * page cache only, so the hot path makes no syscalls. A record with an odd sequence or a wrong checksum is torn by
+ * a crash in the middle of a write and isn't restored. The checksum covers the ccyPair name as well.
+ *
+ * Valid records are read when the journal is opened and compacted into a new file in order of their ids, so ids of
+ * records always match ids of the {@link CcyPairRegistry} which restores them in that order. The new file replaces
+ * the old one by an atomic rename, so a crash at any moment leaves either of them whole.
+ */
+public class PriceJournal implements AutoCloseable {
+
+    private static final long MAGIC = 0x4C50524A4E4C3031L;
+
+    //Version 1 checksums don't cover names
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int RECORD_SIZE = 64;
+
+    private static final int SEQUENCE_OFFSET = 0;
+
+    private static final int RATE_OFFSET = 8;
+
+    private static final int EPOCH_MILLIS_OFFSET = 16;
+
+    private static final int TICK_RATE_OFFSET = 24;
+
+    private static final int CHECKSUM_OFFSET = 32;
+
+    private static final int NAME_LENGTH_OFFSET = 40;
+
+    private static final int NAME_OFFSET = 44;
+
+    public static final int MAX_NAME_LENGTH = RECORD_SIZE - NAME_OFFSET;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final FileChannel channel;
+
+    private final FileLock lock;
+
+    private final MappedByteBuffer buffer;
+
+    private final int capacity;
+
+    private final List<Record> restoredRecords;
+
+    private final int tornRecordsCount;
+
+    //Names of ccyPairs encoded once per id and their hashes, accessed under the record lock only
+    private final byte[][] names;
+
+    private final long[] nameHashes;
+
+    private PriceJournal(FileChannel channel, FileLock lock, MappedByteBuffer buffer, int capacity,
+                         List<Record> restoredRecords, int tornRecordsCount) {
+        this.channel = channel;
+        this.lock = lock;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.restoredRecords = restoredRecords;
+        this.tornRecordsCount = tornRecordsCount;
+        this.names = new byte[capacity][];
+        this.nameHashes = new long[capacity];
+    }
+
+    /**
+     * Reads valid records of the file if it exists and replaces it with a journal of the given capacity which holds
+     * them only. Records beyond the capacity are dropped.
+     *
+     * @throws IllegalStateException if another journal holds the file
+     * @throws IllegalArgumentException if the file isn't a price journal
+     */
+    public static PriceJournal open(Path path, int ccyPairsCapacity) {
+        Path compactedPath = path.resolveSibling(path.getFileName() + ".compacting");
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            if (channel.tryLock() == null) {
+                throw new IllegalStateException("Price journal " + path + " is used by another process");
+            }
+            List<Record> records = new ArrayList<>();
+            int tornRecordsCount = channel.size() == 0 ? 0 : read(channel, path, records);
+            if (records.size() > ccyPairsCapacity) {
+                records = records.subList(0, ccyPairsCapacity);
+            }
+
+            //The compacted file is locked before it is renamed, so other processes can't take either file
+            FileChannel compactedChannel = FileChannel.open(compactedPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock;
+            MappedByteBuffer buffer;
+            try {
+                lock = compactedChannel.lock();
+                buffer = compactedChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) RECORD_SIZE * ccyPairsCapacity);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                LONGS.set(buffer, 0, MAGIC);
+                buffer.putInt(8, VERSION).putInt(12, ccyPairsCapacity);
+                for (int id = 0; id < records.size(); ++id) {
+                    writeRecord(buffer, HEADER_SIZE + id * RECORD_SIZE, records.get(id));
+                }
+                buffer.force();
+                Files.move(compactedPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException | RuntimeException e) {
+                compactedChannel.close();
+                throw e;
+            }
+
+            return new PriceJournal(compactedChannel, lock, buffer, ccyPairsCapacity,
+                    Collections.unmodifiableList(new ArrayList<>(records)), tornRecordsCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't open price journal " + path, e);
+        } finally {
+            //Releases the lock of the old file, the compacted one is locked already
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    //Nothing is written through it
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores the last price of the ccyPair. Ccy pairs with names longer than {@link #MAX_NAME_LENGTH} bytes
+     * aren't journaled.
+     */
+    public void write(int id, String ccyPair, double rate, double tickRate, long epochMillis) {
+        int offset = HEADER_SIZE + id * RECORD_SIZE;
+        long sequence = lock(offset);
+        byte[] name = names[id];
+        if (name == null) {
+            name = ccyPair.getBytes(StandardCharsets.UTF_8);
+            names[id] = name;
+            nameHashes[id] = nameHash(name);
+        }
+        if (name.length > MAX_NAME_LENGTH) {
+            LONGS.setRelease(buffer, offset + SEQUENCE_OFFSET, sequence);
+            return;
+        }
+        if (buffer.getInt(offset + NAME_LENGTH_OFFSET) == 0) {
+            putName(buffer, offset, name);
+            buffer.putInt(offset + NAME_LENGTH_OFFSET, name.length);
+        }
+        long rateBits = Double.doubleToRawLongBits(rate);
+        long tickRateBits = Double.doubleToRawLongBits(tickRate);
+        long nextSequence = sequence + 2;
+        LONGS.set(buffer, offset + RATE_OFFSET, rateBits);
+        LONGS.set(buffer, offset + EPOCH_MILLIS_OFFSET, epochMillis);
+        LONGS.set(buffer, offset + TICK_RATE_OFFSET, tickRateBits);
+        LONGS.set(buffer, offset + CHECKSUM_OFFSET, checksum(nextSequence, rateBits, epochMillis, tickRateBits,
+                name.length, nameHashes[id]));
+        LONGS.setRelease(buffer, offset + SEQUENCE_OFFSET, nextSequence);
+    }
+
+    /**
+     * @return valid records read when the journal was opened, in order of their ids
+     */
+    public List<Record> getRestoredRecords() {
+        return restoredRecords;
+    }
+
+    /**
+     * @return count of records which were torn by a crash and weren't restored
+     */
+    public int getTornRecordsCount() {
+        return tornRecordsCount;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Flushes the journal to the disk and releases the file.
+     */
+    @Override
+    public void close() {
+        try {
+            buffer.force();
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't close price journal", e);
+        }
+    }
+
+    /**
+     * Waits until no other thread writes the record and makes its sequence odd.
+     *
+     * @return the even sequence the record had
+     */
+    private long lock(int offset) {
+        while (true) {
+            long sequence = (long) LONGS.getVolatile(buffer, offset + SEQUENCE_OFFSET);
+            if ((sequence & 1) == 0
+                    && LONGS.compareAndSet(buffer, offset + SEQUENCE_OFFSET, sequence, sequence + 1)) {
+                return sequence;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    private static void putName(ByteBuffer buffer, int offset, byte[] name) {
+        for (int i = 0; i < name.length; ++i) {
+            buffer.put(offset + NAME_OFFSET + i, name[i]);
+        }
+    }
+
+    private static void writeRecord(ByteBuffer buffer, int offset, Record record) {
+        byte[] name = record.ccyPair.getBytes(StandardCharsets.UTF_8);
+        long sequence = 2;
+        long rateBits = Double.doubleToRawLongBits(record.rate);
+        long tickRateBits = Double.doubleToRawLongBits(record.tickRate);
+        putName(buffer, offset, name);
+        buffer.putInt(offset + NAME_LENGTH_OFFSET, name.length);
+        buffer.putLong(offset + RATE_OFFSET, rateBits);
+        buffer.putLong(offset + EPOCH_MILLIS_OFFSET, record.epochMillis);
+        buffer.putLong(offset + TICK_RATE_OFFSET, tickRateBits);
+        buffer.putLong(offset + CHECKSUM_OFFSET, checksum(sequence, rateBits, record.epochMillis, tickRateBits,
+                name.length, nameHash(name)));
+        buffer.putLong(offset + SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * @return count of torn records
+     */
+    private static int read(FileChannel channel, Path path, List<Record> records) throws IOException {
+        //The file is locked, so plain reads of a copy are enough
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        if (buffer.capacity() < HEADER_SIZE || buffer.getLong(0) != MAGIC
+                || buffer.getInt(8) < 1 || buffer.getInt(8) > VERSION) {
+            throw new IllegalArgumentException(path + " isn't a price journal");
+        }
+        boolean namesChecked = buffer.getInt(8) >= 2;
+        int capacity = Math.min(buffer.getInt(12), (buffer.capacity() - HEADER_SIZE) / RECORD_SIZE);
+        int tornRecordsCount = 0;
+        for (int id = 0; id < capacity; ++id) {
+            int offset = HEADER_SIZE + id * RECORD_SIZE;
+            long sequence = buffer.getLong(offset + SEQUENCE_OFFSET);
+            if (sequence == 0) {
+                continue;
+            }
+            long rateBits = buffer.getLong(offset + RATE_OFFSET);
+            long epochMillis = buffer.getLong(offset + EPOCH_MILLIS_OFFSET);
+            long tickRateBits = buffer.getLong(offset + TICK_RATE_OFFSET);
+            long checksum = buffer.getLong(offset + CHECKSUM_OFFSET);
+            int nameLength = buffer.getInt(offset + NAME_LENGTH_OFFSET);
+            if ((sequence & 1) != 0 || nameLength <= 0 || nameLength > MAX_NAME_LENGTH) {
+                ++tornRecordsCount;
+                continue;
+            }
+            byte[] name = new byte[nameLength];
+            for (int i = 0; i < nameLength; ++i) {
+                name[i] = buffer.get(offset + NAME_OFFSET + i);
+            }
+            if (checksum != checksum(sequence, rateBits, epochMillis, tickRateBits, nameLength,
+                    namesChecked ? nameHash(name) : 0)) {
+                ++tornRecordsCount;
+                continue;
+            }
+            records.add(new Record(new String(name, StandardCharsets.UTF_8), Double.longBitsToDouble(rateBits),
+                    Double.longBitsToDouble(tickRateBits), epochMillis));
+        }
+
+        return tornRecordsCount;
+    }
+
+    private static long checksum(long sequence, long rateBits, long epochMillis, long tickRateBits, int nameLength,
+                                 long nameHash) {
+        long hash = sequence;
+        hash = hash * 31 + rateBits;
+        hash = hash * 31 + epochMillis;
+        hash = hash * 31 + tickRateBits;
+        hash = hash * 31 + nameLength;
+        //Zero for version 1 records, so their checksums stay the same
+        hash = nameHash == 0 ? hash : hash * 31 + nameHash;
+
+        //Zero is what an unwritten page reads as
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long nameHash(byte[] name) {
+        long hash = 0;
+        for (byte b : name) {
+            hash = hash * 31 + b;
+        }
+
+        return hash;
+    }
+
+    /**
+     * The last price of a ccyPair read from the journal.
+     */
+    public static class Record {
+
+        private final String ccyPair;
+
+        private final double rate;
+
+        private final double tickRate;
+
+        private final long epochMillis;
+
+        Record(String ccyPair, double rate, double tickRate, long epochMillis) {
+            this.ccyPair = ccyPair;
+            this.rate = rate;
+            this.tickRate = tickRate;
+            this.epochMillis = epochMillis;
+        }
+
+        public String getCcyPair() {
+            return ccyPair;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+
+        /**
+         * @return the estimated number of ticks per second when the price was stored
+         */
+        public double getTickRate() {
+            return tickRate;
+        }
+
+        /**
+         * @return {@link System#currentTimeMillis()} when the price was stored
+         */
+        public long getEpochMillis() {
+            return epochMillis;
+        }
+    }
+}
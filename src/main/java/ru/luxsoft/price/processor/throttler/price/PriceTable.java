@@ -0,0 +1,186 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds the last rate, the ticks sequence and the tick rate of every ccyPair in primitive arrays indexed
+ * by the ccyPair id. We need this to accept a price without allocating anything. The arrays may live off the heap,
+ * see {@link LongSlots}.
+ *
+ * We need priority because less frequently ccPairs should be published at first rather than most frequently ccPairs.
+ * The lower the priority, the earlier the price will be processed. See {@link TickRates}.
+ */
+public class PriceTable {
+
+    private final CcyPairRegistry ccyPairRegistry;
+
+    private final LongSlots rates;
+
+    private final LongSlots sequences;
+
+    private final TickRates tickRates;
+
+    private final StalenessLimits stalenessLimits;
+
+    //Null if prices aren't journaled
+    private final PriceJournal priceJournal;
+
+    private final boolean offHeap;
+
+    public PriceTable(int ccyPairsCapacity, long tickRateHalfLifeInMillis, StalenessLimits stalenessLimits) {
+        this(ccyPairsCapacity, tickRateHalfLifeInMillis, stalenessLimits, null);
+    }
+
+    public PriceTable(int ccyPairsCapacity, long tickRateHalfLifeInMillis, StalenessLimits stalenessLimits,
+                      PriceJournal priceJournal) {
+        this(ccyPairsCapacity, tickRateHalfLifeInMillis, stalenessLimits, priceJournal, false);
+    }
+
+    /**
+     * @param offHeap true to keep rates, sequences and tick rates in native memory
+     */
+    public PriceTable(int ccyPairsCapacity, long tickRateHalfLifeInMillis, StalenessLimits stalenessLimits,
+                      PriceJournal priceJournal, boolean offHeap) {
+        this.ccyPairRegistry = new CcyPairRegistry(ccyPairsCapacity);
+        this.rates = LongSlots.allocate(ccyPairsCapacity, offHeap);
+        this.sequences = LongSlots.allocate(ccyPairsCapacity, offHeap);
+        this.tickRates = new TickRates(ccyPairsCapacity, tickRateHalfLifeInMillis, offHeap);
+        this.stalenessLimits = stalenessLimits;
+        this.priceJournal = priceJournal;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Restores last rates and tick rates of ccyPairs read by the journal. Must be called before the first update,
+     * so ccyPairs get the ids their records have in the compacted journal.
+     *
+     * @return count of restored ccyPairs
+     */
+    public int restore() {
+        int restored = 0;
+        long nanoTime = System.nanoTime();
+        long epochMillis = System.currentTimeMillis();
+        for (PriceJournal.Record record : priceJournal.getRestoredRecords()) {
+            if (ccyPairRegistry.size() == ccyPairRegistry.capacity()) {
+                break;
+            }
+            int id = ccyPairRegistry.getOrRegister(record.getCcyPair());
+            rates.set(id, Double.doubleToRawLongBits(record.getRate()));
+            sequences.incrementAndGet(id);
+            long ageInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, epochMillis - record.getEpochMillis()));
+            tickRates.restore(id, record.getTickRate(), nanoTime - ageInNanos);
+            ++restored;
+        }
+
+        return restored;
+    }
+
+    /**
+     * Stores the new rate of the ccyPair.
+     *
+     * @param nanoTime - {@link System#nanoTime()} of the tick
+     * @return the ccyPair id
+     */
+    public int update(String ccyPair, double rate, long nanoTime) {
+        int id = ccyPairRegistry.getOrRegister(ccyPair);
+        update(id, rate, nanoTime);
+
+        return id;
+    }
+
+    /**
+     * Stores the new rate of the registered ccyPair.
+     *
+     * @param nanoTime - {@link System#nanoTime()} of the tick
+     */
+    public void update(int id, double rate, long nanoTime) {
+        rates.set(id, Double.doubleToRawLongBits(rate));
+        sequences.incrementAndGet(id);
+        tickRates.onTick(id, nanoTime);
+        if (priceJournal != null) {
+            priceJournal.write(id, ccyPairRegistry.getCcyPair(id), rate, tickRates.getTickRate(id, nanoTime),
+                    System.currentTimeMillis());
+        }
+    }
+
+    public double getRate(int id) {
+        return Double.longBitsToDouble(rates.get(id));
+    }
+
+    /**
+     * @return the last rate of the ccyPair or {@link Double#NaN} if it hasn't ticked yet
+     */
+    public double getLatest(String ccyPair) {
+        int id = ccyPairRegistry.getId(ccyPair);
+
+        return id == -1 || !hasPrice(id) ? Double.NaN : getRate(id);
+    }
+
+    /**
+     * @return false if the ccyPair is registered but its first rate isn't stored yet
+     */
+    public boolean hasPrice(int id) {
+        //The sequence is incremented after the rate is stored
+        return sequences.get(id) > 0;
+    }
+
+    public long getSequence(int id) {
+        return sequences.get(id);
+    }
+
+    public double getPriority(int id) {
+        return tickRates.getPriority(id);
+    }
+
+    /**
+     * @return the current estimated number of ticks per second
+     */
+    public double getTickRate(int id) {
+        return tickRates.getTickRate(id, System.nanoTime());
+    }
+
+    /**
+     * @return max age of a not published price of the ccyPair or zero if there is no limit
+     */
+    public long getMaxAgeInNanos(int id) {
+        return stalenessLimits.getMaxAgeInNanos(id, ccyPairRegistry);
+    }
+
+    /**
+     * Counts the price of the ccyPair if it has been published later than its max age.
+     *
+     * @return true if the max age has been breached
+     */
+    public boolean checkStaleness(int id, long pendingSince, long nanoTime) {
+        long maxAge = getMaxAgeInNanos(id);
+        if (maxAge > 0 && nanoTime - pendingSince > maxAge) {
+            stalenessLimits.onBreach(id);
+            return true;
+        }
+
+        return false;
+    }
+
+    public long getStalenessBreaches(int id) {
+        return stalenessLimits.getBreaches(id);
+    }
+
+    public String getCcyPair(int id) {
+        return ccyPairRegistry.getCcyPair(id);
+    }
+
+    public CcyPairRegistry getCcyPairRegistry() {
+        return ccyPairRegistry;
+    }
+
+    public int capacity() {
+        return ccyPairRegistry.capacity();
+    }
+
+    /**
+     * @return true if the table is kept in native memory, so pending prices of subscribers should be too
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+}
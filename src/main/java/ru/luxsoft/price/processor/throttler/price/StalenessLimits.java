@@ -0,0 +1,63 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class holds the max age of a not published price of every ccyPair. We need this to guarantee rare ccyPairs
+ * reach every subscriber in time even when frequent ccyPairs flood it: a price older than its max age is published
+ * before any other price. Every price published later than its max age is counted as a breach.
+ *
+ * Max ages are resolved by ccyPair name once, on the first lookup by id.
+ */
+public class StalenessLimits {
+
+    private static final long UNRESOLVED = -1;
+
+    private final long defaultMaxAgeInNanos;
+
+    private final Map<String, Long> maxAgesInNanos = new HashMap<>();
+
+    private final AtomicLongArray resolvedMaxAgesInNanos;
+
+    private final LongAdder[] breaches;
+
+    /**
+     * @param defaultMaxAgeInMillis - zero means no limit for ccyPairs without own max age
+     * @param maxAgesInMillis - own max ages of ccyPairs, zero means no limit
+     */
+    public StalenessLimits(int ccyPairsCapacity, long defaultMaxAgeInMillis, Map<String, Long> maxAgesInMillis) {
+        this.defaultMaxAgeInNanos = TimeUnit.MILLISECONDS.toNanos(defaultMaxAgeInMillis);
+        maxAgesInMillis.forEach((ccyPair, maxAge) -> maxAgesInNanos.put(ccyPair, TimeUnit.MILLISECONDS.toNanos(maxAge)));
+        this.resolvedMaxAgesInNanos = new AtomicLongArray(ccyPairsCapacity);
+        this.breaches = new LongAdder[ccyPairsCapacity];
+        for (int i = 0; i < ccyPairsCapacity; ++i) {
+            resolvedMaxAgesInNanos.set(i, UNRESOLVED);
+            breaches[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return max age of the ccyPair price or zero if there is no limit
+     */
+    long getMaxAgeInNanos(int id, CcyPairRegistry ccyPairRegistry) {
+        long maxAge = resolvedMaxAgesInNanos.get(id);
+        if (maxAge == UNRESOLVED) {
+            maxAge = maxAgesInNanos.getOrDefault(ccyPairRegistry.getCcyPair(id), defaultMaxAgeInNanos);
+            resolvedMaxAgesInNanos.set(id, maxAge);
+        }
+
+        return maxAge;
+    }
+
+    void onBreach(int id) {
+        breaches[id].increment();
+    }
+
+    long getBreaches(int id) {
+        return breaches[id].sum();
+    }
+}
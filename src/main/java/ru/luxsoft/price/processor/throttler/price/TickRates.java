@@ -0,0 +1,74 @@
+package ru.luxsoft.price.processor.throttler.price;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class estimates how often every ccyPair ticks right now. We need this because a ccyPair may be frequent
+ * in the morning and rare in the afternoon, so a plain ticks counter can't tell rare ccyPairs from frequent ones.
+ *
+ * Every ccyPair keeps an exponentially decayed ticks count: each tick adds one and the count halves every half-life.
+ * The count is stored as log2(count) + t / halfLife, where t is the time of the last tick. The decay of all
+ * ccyPairs is the same at any moment, so this value alone orders ccyPairs by their current tick rate, and it is
+ * updated with a single CAS without locks.
+ */
+public class TickRates {
+
+    private static final double LN_2 = Math.log(2);
+
+    private final LongSlots logCounts;
+
+    private final long halfLifeInNanos;
+
+    private final long startNanos;
+
+    public TickRates(int ccyPairsCapacity, long halfLifeInMillis) {
+        this(ccyPairsCapacity, halfLifeInMillis, false);
+    }
+
+    public TickRates(int ccyPairsCapacity, long halfLifeInMillis, boolean offHeap) {
+        this.logCounts = LongSlots.allocate(ccyPairsCapacity, offHeap);
+        this.halfLifeInNanos = TimeUnit.MILLISECONDS.toNanos(halfLifeInMillis);
+        this.startNanos = System.nanoTime();
+        logCounts.fill(Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+    }
+
+    public void onTick(int id, long nanoTime) {
+        double halfLives = toHalfLives(nanoTime);
+        while (true) {
+            long current = logCounts.get(id);
+            double count = Math.pow(2, Double.longBitsToDouble(current) - halfLives);
+            double next = halfLives + Math.log1p(count) / LN_2;
+            if (logCounts.compareAndSet(id, current, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sets the tick rate of the ccyPair estimated at the given time, by a previous run for example.
+     */
+    public void restore(int id, double tickRate, long nanoTime) {
+        double count = tickRate * halfLifeInNanos / (LN_2 * TimeUnit.SECONDS.toNanos(1));
+        logCounts.set(id, Double.doubleToRawLongBits(toHalfLives(nanoTime) + Math.log(count) / LN_2));
+    }
+
+    /**
+     * The lower the priority, the rarer the ccyPair ticks right now.
+     */
+    public double getPriority(int id) {
+        return Double.longBitsToDouble(logCounts.get(id));
+    }
+
+    /**
+     * @return the estimated number of ticks per second at the given time
+     */
+    public double getTickRate(int id, long nanoTime) {
+        double count = Math.pow(2, getPriority(id) - toHalfLives(nanoTime));
+
+        return count * LN_2 * TimeUnit.SECONDS.toNanos(1) / halfLifeInNanos;
+    }
+
+    private double toHalfLives(long nanoTime) {
+        return (double) (nanoTime - startNanos) / halfLifeInNanos;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.luxsoft.price.processor.throttler.rapidity;
+
+/**
+ * This class holds the rolling run time profile of one subscriber. The run time is an exponentially weighted moving
+ * average in nanoseconds, so old calls are forgotten and the subscriber can change its tier in both directions.
+ *
+ * Only one thread at a time may add run times, any thread may read the profile.
+ */
+public class RapidityProfile {
+
+    private volatile double averageRunTimeInNanos = -1;
+
+    private volatile TaskRapidityResolver.Rapidity rapidity;
+
+    public RapidityProfile(TaskRapidityResolver.Rapidity rapidity) {
+        this.rapidity = rapidity;
+    }
+
+    public TaskRapidityResolver.Rapidity getRapidity() {
+        return rapidity;
+    }
+
+    public double getAverageRunTimeInNanos() {
+        return averageRunTimeInNanos;
+    }
+
+    void setRapidity(TaskRapidityResolver.Rapidity rapidity) {
+        this.rapidity = rapidity;
+    }
+
+    double addRunTime(long runTimeInNanos, double weight) {
+        double average = averageRunTimeInNanos;
+        average = average < 0 ? runTimeInNanos : average + weight * (runTimeInNanos - average);
+        averageRunTimeInNanos = average;
+
+        return average;
+    }
+}
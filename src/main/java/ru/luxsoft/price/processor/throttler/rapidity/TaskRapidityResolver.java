@@ -1,35 +1,122 @@
 package ru.luxsoft.price.processor.throttler.rapidity;
 
-import org.apache.commons.lang3.time.StopWatch;
-
-import java.util.concurrent.TimeUnit;
-
 /**
  * This class detects rapidity of task. We need this to know which subscriber is fast, which is slow.
+ *
+ * The rapidity is decided by the subscriber's {@link RapidityProfile}, not by a single call. A subscriber moves to
+ * a slower tier when its average run time exceeds the tier lower bound by the hysteresis, and moves back when it
+ * falls below the bound by the hysteresis. So a subscriber doesn't flap between tiers near the bound.
+ *
+ * Bounds may be changed at any time, subscribers move to their new tiers on their next calls.
  */
 public class TaskRapidityResolver {
 
-    private long slowTaskLowerBoundInSeconds;
+    private static final double AVERAGE_WEIGHT = 0.2;
+
+    private static final double HYSTERESIS = 0.2;
+
+    private final boolean mediumTier;
+
+    private volatile long mediumTaskLowerBoundInNanos;
+
+    private volatile long slowTaskLowerBoundInNanos;
+
+    /**
+     * @param mediumTaskLowerBoundInNanos pass slowTaskLowerBoundInNanos to have fast and slow tiers only
+     */
+    public TaskRapidityResolver(long mediumTaskLowerBoundInNanos, long slowTaskLowerBoundInNanos) {
+        this.mediumTier = mediumTaskLowerBoundInNanos != slowTaskLowerBoundInNanos;
+        setLowerBounds(mediumTaskLowerBoundInNanos, slowTaskLowerBoundInNanos);
+    }
+
+    /**
+     * Without the medium tier moves the bound between fast and slow tasks.
+     */
+    public synchronized void setSlowTaskLowerBoundInNanos(long slowTaskLowerBoundInNanos) {
+        setLowerBounds(mediumTier ? mediumTaskLowerBoundInNanos : slowTaskLowerBoundInNanos,
+                slowTaskLowerBoundInNanos);
+    }
+
+    public synchronized void setMediumTaskLowerBoundInNanos(long mediumTaskLowerBoundInNanos) {
+        if (!mediumTier) {
+            throw new IllegalStateException("There is no medium tier");
+        }
+        setLowerBounds(mediumTaskLowerBoundInNanos, slowTaskLowerBoundInNanos);
+    }
+
+    public boolean hasMediumTier() {
+        return mediumTier;
+    }
+
+    public long getMediumTaskLowerBoundInNanos() {
+        return mediumTaskLowerBoundInNanos;
+    }
+
+    public long getSlowTaskLowerBoundInNanos() {
+        return slowTaskLowerBoundInNanos;
+    }
+
+    /**
+     * Updates the profile with the task run time.
+     *
+     * @return the new rapidity of the profile
+     */
+    public Rapidity resolve(RapidityProfile profile, long elapsedTimeInNanos) {
+        double averageRunTime = profile.addRunTime(elapsedTimeInNanos, AVERAGE_WEIGHT);
+        Rapidity current = profile.getRapidity();
+        Rapidity target = current;
+        //Demotion, the run time has to be clearly above the lower bound of the slower tier
+        while (target != Rapidity.SLOW && averageRunTime >= getLowerBound(slower(target)) * (1 + HYSTERESIS)) {
+            target = slower(target);
+        }
+        //Promotion, the run time has to be clearly below the lower bound of the current tier
+        if (target == current) {
+            while (target != Rapidity.FAST && averageRunTime < getLowerBound(target) * (1 - HYSTERESIS)) {
+                target = faster(target);
+            }
+        }
+        profile.setRapidity(target);
+
+        return target;
+    }
 
-    public TaskRapidityResolver(long slowTaskLowerBoundInSeconds) {
-        this.slowTaskLowerBoundInSeconds = slowTaskLowerBoundInSeconds;
+    private static Rapidity slower(Rapidity rapidity) {
+        return Rapidity.values()[rapidity.ordinal() + 1];
     }
 
-    public Rapidity executeTask(Runnable runnable) {
-        StopWatch timeMeter = new StopWatch();
-        timeMeter.start();
-        runnable.run();
-        timeMeter.stop();
+    private static Rapidity faster(Rapidity rapidity) {
+        return Rapidity.values()[rapidity.ordinal() - 1];
+    }
 
-        long elapsedTimeInSeconds = timeMeter.getTime(TimeUnit.SECONDS);
+    private void setLowerBounds(long mediumTaskLowerBoundInNanos, long slowTaskLowerBoundInNanos) {
+        if (mediumTaskLowerBoundInNanos <= 0 || mediumTaskLowerBoundInNanos > slowTaskLowerBoundInNanos) {
+            throw new IllegalArgumentException("Lower bounds must be positive and the medium one must not exceed "
+                    + "the slow one: " + mediumTaskLowerBoundInNanos + ", " + slowTaskLowerBoundInNanos);
+        }
+        this.mediumTaskLowerBoundInNanos = mediumTaskLowerBoundInNanos;
+        this.slowTaskLowerBoundInNanos = slowTaskLowerBoundInNanos;
+    }
 
-        return elapsedTimeInSeconds >= slowTaskLowerBoundInSeconds ? Rapidity.SLOW : Rapidity.FAST;
+    private long getLowerBound(Rapidity rapidity) {
+        switch (rapidity) {
+            case SLOW:
+                return slowTaskLowerBoundInNanos;
+            case MEDIUM:
+                return mediumTaskLowerBoundInNanos;
+            default:
+                return 0;
+        }
     }
 
+    /**
+     * Tiers from the fastest to the slowest.
+     */
     public enum Rapidity {
 
-        SLOW,
+        FAST,
+
+        MEDIUM,
 
-        FAST
+        SLOW
     }
 }
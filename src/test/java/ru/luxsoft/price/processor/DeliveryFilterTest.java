@@ -0,0 +1,96 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+import ru.luxsoft.price.processor.throttler.SubscriberOptions;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Publishes sub-pip moves and a fast stream of big moves and checks filtered subscribers get few prices, but still
+//the final rate of every ccyPair. Exits with status 1 if they don't
+class DeliveryFilterTest {
+
+    private static final double PIP = 0.0001;
+
+    private static final long MIN_INTERVAL_IN_MILLIS = 100;
+
+    private static final long FINAL_VALUE_DELAY_IN_MILLIS = 200;
+
+    public static void main(String[] args) throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig());
+        CountingSubscriber pipSubscriber = new CountingSubscriber();
+        CountingSubscriber intervalSubscriber = new CountingSubscriber();
+        priceThrottler.subscribe(pipSubscriber, new SubscriberOptions()
+                .setMinAbsoluteChange(PIP)
+                .setMinAbsoluteChange("USDJPY", 0.01)
+                .setFinalValueDelayInMillis(FINAL_VALUE_DELAY_IN_MILLIS));
+        priceThrottler.subscribe(intervalSubscriber, new SubscriberOptions()
+                .setMinIntervalInMillis(MIN_INTERVAL_IN_MILLIS));
+
+        //A pip subscriber gets the first rate only, sub-pip moves are deferred
+        double rate = 1.1;
+        for (int i = 0; i < 100; ++i) {
+            rate += PIP / 100;
+            priceThrottler.onPrice("EURUSD", rate);
+            priceThrottler.onPrice("USDJPY", 150 + i * PIP);
+            Thread.sleep(1);
+        }
+        Thread.sleep(FINAL_VALUE_DELAY_IN_MILLIS * 2);
+        double finalRate = rate;
+
+        //An interval subscriber gets a price per interval at most
+        long start = System.currentTimeMillis();
+        long ticks = 0;
+        while (System.currentTimeMillis() - start < MIN_INTERVAL_IN_MILLIS * 5) {
+            priceThrottler.onPrice("GBPUSD", ++ticks);
+            Thread.sleep(1);
+        }
+        Thread.sleep(MIN_INTERVAL_IN_MILLIS * 2);
+        priceThrottler.shutdown();
+
+        boolean passed = true;
+        System.out.print(priceThrottler.getMetrics());
+        if (pipSubscriber.lastEurUsd != finalRate || pipSubscriber.lastUsdJpy != 150 + 99 * PIP
+                || pipSubscriber.pipCount.get() > 10) {
+            System.out.println("Pip subscriber got " + pipSubscriber.pipCount + " prices, last EURUSD "
+                    + pipSubscriber.lastEurUsd + " instead of " + finalRate);
+            passed = false;
+        }
+        if (intervalSubscriber.lastGbpUsd != ticks || intervalSubscriber.gbpUsdCount.get() > 8) {
+            System.out.println("Interval subscriber got " + intervalSubscriber.gbpUsdCount + " GBPUSD prices, last "
+                    + intervalSubscriber.lastGbpUsd + " instead of " + ticks);
+            passed = false;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static class CountingSubscriber implements PriceProcessor {
+
+        private final AtomicInteger pipCount = new AtomicInteger();
+
+        private final AtomicInteger gbpUsdCount = new AtomicInteger();
+
+        private volatile double lastEurUsd;
+
+        private volatile double lastUsdJpy;
+
+        private volatile double lastGbpUsd;
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            switch (ccyPair) {
+                case "EURUSD":
+                    lastEurUsd = rate;
+                    pipCount.incrementAndGet();
+                    break;
+                case "USDJPY":
+                    lastUsdJpy = rate;
+                    pipCount.incrementAndGet();
+                    break;
+                default:
+                    lastGbpUsd = rate;
+                    gbpUsdCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.luxsoft.price.processor;
+
+import jdk.jfr.Recording;
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+import ru.luxsoft.price.processor.throttler.events.RecordingAnalyzer;
+import ru.luxsoft.price.processor.throttler.events.RecordingReport;
+import ru.luxsoft.price.processor.throttler.events.ThrottlerEvents;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+//Records a fast and a slow subscriber with all throttler events enabled and checks the analyzer of the recording
+//tells where their latency goes. Exits with status 1 if it doesn't
+class FlightRecorderEventsTest {
+
+    private static final int CCY_PAIRS_COUNT = 10;
+
+    private static final int ROUNDS_COUNT = 200;
+
+    private static final long SLOW_ON_PRICE_IN_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        Path recordingFile = Files.createTempFile("throttler", ".jfr");
+        boolean passed;
+        try (Recording recording = new Recording()) {
+            ThrottlerEvents.enable(recording, Duration.ZERO);
+            recording.start();
+            PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                    .setSlowSubscriberRunTimeLowerBoundInMillis(2)
+                    .setShutdownTimeoutInMillis(10_000));
+            priceThrottler.subscribe(new NamedSubscriber("fast", 0));
+            priceThrottler.subscribe(new NamedSubscriber("slow", SLOW_ON_PRICE_IN_MILLIS));
+            for (int round = 0; round < ROUNDS_COUNT; ++round) {
+                for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                    priceThrottler.onPrice("CCY" + i, round);
+                }
+                Thread.sleep(1);
+            }
+            priceThrottler.shutdown();
+            recording.stop();
+            recording.dump(recordingFile);
+
+            RecordingReport report = RecordingAnalyzer.analyze(recordingFile);
+            System.out.print(report);
+            passed = check(report);
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(RecordingReport report) {
+        RecordingReport.SubscriberBreakdown fast = report.getSubscriber("fast");
+        RecordingReport.SubscriberBreakdown slow = report.getSubscriber("slow");
+        if (fast == null || slow == null) {
+            System.out.println("Subscribers have no events");
+            return false;
+        }
+        boolean passed = true;
+        if (slow.getOnPrice().getP50InNanos() < TimeUnit.MILLISECONDS.toNanos(SLOW_ON_PRICE_IN_MILLIS)
+                || fast.getOnPrice().getP50InNanos() >= slow.getOnPrice().getP50InNanos()) {
+            System.out.println("OnPrice times are wrong");
+            passed = false;
+        }
+        if (slow.getOverwritten() == 0 || slow.getPending().getP99InNanos() <= fast.getPending().getP50InNanos()
+                || fast.getQueue().getCount() == 0) {
+            System.out.println("Conflation and queue times are wrong");
+            passed = false;
+        }
+        if (fast.getTierChanges() == 0) {
+            System.out.println("The fast subscriber has no tier change from the slow tier it starts in");
+            passed = false;
+        }
+        for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+            RecordingReport.CcyPairBreakdown ccyPair = report.getCcyPair("CCY" + i);
+            if (ccyPair == null || ccyPair.getIngested() != ROUNDS_COUNT || ccyPair.getOnPrice().getCount() == 0) {
+                System.out.println("CcyPair CCY" + i + " has wrong events");
+                passed = false;
+            }
+        }
+
+        return passed;
+    }
+
+    private static class NamedSubscriber implements PriceProcessor {
+
+        private final String name;
+
+        private final long onPriceInMillis;
+
+        NamedSubscriber(String name, long onPriceInMillis) {
+            this.name = name;
+            this.onPriceInMillis = onPriceInMillis;
+        }
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            if (onPriceInMillis > 0) {
+                try {
+                    Thread.sleep(onPriceInMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+//Subscribes reactive subscribers to the throttler publisher and checks they get no more prices than they request,
+//prices conflate without demand and come rare ccyPairs first, onNext runs on publishing and requesting threads only,
+//and cancel, wrong requests and shutdown end streams, even with a hung onNext, without signals overlapping onNext.
+//Exits with status 1 if not
+class FlowPublisherTest {
+
+    private static final int CCY_PAIRS_COUNT = 10;
+
+    private static final int ROUNDS_COUNT = 2000;
+
+    private static final double FINAL_RATE = -1;
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean passed = checkRarePairsFirst() & checkDemand() & checkCancelAndErrors() & checkHungShutdown()
+                & checkSerialError();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean checkRarePairsFirst() {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig());
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        priceThrottler.asPublisher().subscribe(subscriber);
+        //No demand yet, so every ccyPair conflates to its last price
+        for (int i = 0; i < 100; ++i) {
+            priceThrottler.onPrice("FREQUENT", i);
+            if (i % 10 == 0) {
+                priceThrottler.onPrice("MEDIUM", i);
+            }
+        }
+        priceThrottler.onPrice("RARE", 1);
+        boolean passed = subscriber.prices.isEmpty();
+        for (int i = 0; i < 3; ++i) {
+            subscriber.subscription.get().request(1);
+        }
+        priceThrottler.shutdown();
+
+        System.out.println("Prices after three requests " + subscriber.prices);
+        if (!passed || !subscriber.prices.equals(List.of(new Price("RARE", 1), new Price("MEDIUM", 90),
+                new Price("FREQUENT", 99)))) {
+            System.out.println("Conflated prices don't come one per request rare ccyPairs first");
+            return false;
+        }
+
+        return subscriber.completed.get();
+    }
+
+    private static boolean checkDemand() throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setShutdownTimeoutInMillis(10_000));
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        priceThrottler.asPublisher().subscribe(subscriber);
+        //Requests a few prices now and then while prices flood
+        Thread consumer = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                subscriber.requested.addAndGet(5);
+                subscriber.subscription.get().request(5);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "consumer");
+        Thread flood = new Thread(() -> {
+            for (int round = 1; round <= ROUNDS_COUNT; ++round) {
+                for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                    priceThrottler.onPrice("CCY" + i, round);
+                }
+            }
+            for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                priceThrottler.onPrice("CCY" + i, FINAL_RATE);
+            }
+        }, "flood");
+        consumer.start();
+        flood.start();
+        flood.join();
+        consumer.interrupt();
+        consumer.join();
+        boolean passed = true;
+        if (subscriber.prices.size() > subscriber.requested.get()) {
+            System.out.println("Got " + subscriber.prices.size() + " prices for " + subscriber.requested.get()
+                    + " requested");
+            passed = false;
+        }
+        subscriber.subscription.get().request(Long.MAX_VALUE);
+        priceThrottler.shutdown();
+
+        System.out.println("Published " + (ROUNDS_COUNT + 1) * CCY_PAIRS_COUNT + ", delivered "
+                + subscriber.prices.size() + " on threads " + subscriber.threads);
+        if (subscriber.prices.size() >= ROUNDS_COUNT * CCY_PAIRS_COUNT / 2) {
+            System.out.println("Prices aren't conflated without demand");
+            passed = false;
+        }
+        if (!Set.of("main", "consumer", "flood", "price-watchdog").containsAll(subscriber.threads)) {
+            System.out.println("Prices are delivered by delivery threads");
+            passed = false;
+        }
+        for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+            if (!Double.valueOf(FINAL_RATE).equals(subscriber.lastRates.get("CCY" + i))) {
+                System.out.println("Subscriber has got " + subscriber.lastRates.get("CCY" + i)
+                        + " as the final rate of CCY" + i);
+                passed = false;
+            }
+        }
+        if (!subscriber.completed.get()) {
+            System.out.println("Subscriber isn't completed on shutdown");
+            passed = false;
+        }
+
+        return passed;
+    }
+
+    private static boolean checkCancelAndErrors() {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig());
+        RecordingSubscriber cancelled = new RecordingSubscriber();
+        RecordingSubscriber wrong = new RecordingSubscriber();
+        priceThrottler.asPublisher().subscribe(cancelled);
+        priceThrottler.asPublisher().subscribe(wrong);
+        cancelled.subscription.get().request(Long.MAX_VALUE);
+        priceThrottler.onPrice("CCY0", 1);
+        cancelled.subscription.get().cancel();
+        wrong.subscription.get().request(0);
+        priceThrottler.onPrice("CCY0", 2);
+        wrong.subscription.get().request(1);
+        priceThrottler.shutdown();
+
+        boolean passed = true;
+        if (!cancelled.prices.equals(List.of(new Price("CCY0", 1))) || cancelled.completed.get()) {
+            System.out.println("Cancelled subscriber has got " + cancelled.prices + ", completed "
+                    + cancelled.completed.get());
+            passed = false;
+        }
+        if (!(wrong.error.get() instanceof IllegalArgumentException) || !wrong.prices.isEmpty()
+                || wrong.completed.get()) {
+            System.out.println("Subscriber requesting 0 has got " + wrong.error.get() + " and " + wrong.prices);
+            passed = false;
+        }
+
+        return passed;
+    }
+
+    private static boolean checkHungShutdown() throws InterruptedException {
+        long shutdownTimeout = 300;
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setShutdownTimeoutInMillis(shutdownTimeout));
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber hung = new RecordingSubscriber() {
+            @Override
+            public void onNext(Price price) {
+                super.onNext(price);
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        priceThrottler.asPublisher().subscribe(hung);
+        priceThrottler.onPrice("CCY0", 1);
+        Thread requester = new Thread(() -> hung.subscription.get().request(1), "requester");
+        requester.start();
+        while (hung.prices.isEmpty()) {
+            Thread.sleep(1);
+        }
+        long shutdownStart = System.nanoTime();
+        priceThrottler.shutdown();
+        long shutdownTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - shutdownStart);
+        release.countDown();
+        requester.join();
+
+        System.out.println("Shutdown with a hung onNext took " + shutdownTime + " millis");
+        if (shutdownTime > shutdownTimeout * 2 || !hung.completed.get()) {
+            System.out.println("Shutdown isn't bounded or the hung subscriber isn't completed");
+            return false;
+        }
+
+        return true;
+    }
+
+    private static boolean checkSerialError() throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig());
+        CountDownLatch inOnNext = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean running = new AtomicBoolean();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        RecordingSubscriber blocking = new RecordingSubscriber() {
+            @Override
+            public void onNext(Price price) {
+                running.set(true);
+                super.onNext(price);
+                inOnNext.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.set(false);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                overlapped.compareAndSet(false, running.get());
+                super.onError(throwable);
+            }
+        };
+        priceThrottler.asPublisher().subscribe(blocking);
+        priceThrottler.onPrice("CCY0", 1);
+        Thread requester = new Thread(() -> blocking.subscription.get().request(1), "requester");
+        requester.start();
+        inOnNext.await();
+        //A wrong request while another thread is in onNext
+        blocking.subscription.get().request(0);
+        boolean signalledEarly = blocking.error.get() != null;
+        release.countDown();
+        requester.join();
+        priceThrottler.shutdown();
+
+        if (signalledEarly || overlapped.get() || !(blocking.error.get() instanceof IllegalArgumentException)
+                || blocking.completed.get()) {
+            System.out.println("OnError overlaps onNext or isn't signalled after it: " + blocking.error.get());
+            return false;
+        }
+
+        return true;
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Price> {
+
+        private final AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+
+        private final List<Price> prices = new CopyOnWriteArrayList<>();
+
+        private final Map<String, Double> lastRates = new ConcurrentHashMap<>();
+
+        private final Set<String> threads = ConcurrentHashMap.newKeySet();
+
+        private final AtomicLong requested = new AtomicLong();
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription.set(subscription);
+        }
+
+        @Override
+        public void onNext(Price price) {
+            prices.add(price);
+            lastRates.put(price.getCcyPair(), price.getRate());
+            threads.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completed.set(true);
+        }
+    }
+}
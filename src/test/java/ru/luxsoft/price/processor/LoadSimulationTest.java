@@ -0,0 +1,154 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.simulator.LoadSimulator;
+import ru.luxsoft.price.processor.simulator.SimulatedSubscriber;
+import ru.luxsoft.price.processor.simulator.SimulationReport;
+import ru.luxsoft.price.processor.simulator.SyntheticTickSource;
+import ru.luxsoft.price.processor.simulator.Tick;
+import ru.luxsoft.price.processor.simulator.TickFile;
+import ru.luxsoft.price.processor.simulator.TickSource;
+import ru.luxsoft.price.processor.simulator.VirtualClock;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Records a seeded trading hour of 200 ccyPairs and replays it to fast subscribers alone and then together with
+//subscribers whose onPrice takes up to 30 minutes. Checks fast subscribers aren't slowed down by slow ones and slow
+//ones aren't starved. Runs of fast subscribers alone are the baseline for the noise of the machine, the best of
+//several runs is compared on both sides. Exits with status 1 if they are.
+//The first argument is the execution mode, THREAD_POOLS by default. Run by mvn test -Pchecks
+class LoadSimulationTest {
+
+    private static final long SEED = 20240601;
+
+    //A virtual hour takes 3.6 seconds
+    private static final double SPEED_UP = 1000;
+
+    private static final int CCY_PAIRS_COUNT = 200;
+
+    private static final int FAST_SUBSCRIBERS_COUNT = 10;
+
+    private static final int SLOW_SUBSCRIBERS_COUNT = 5;
+
+    private static final long DURATION_IN_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private static final long WARM_UP_IN_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private static final long DRAIN_IN_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    //Fast lags of runs with and without slow subscribers differ by up to 1.5 times from run to run on the same host
+    private static final double FAST_MAX_LAG_P99_GROWTH = 2;
+
+    private static final int RUNS_COUNT = 3;
+
+    private static final double MIN_FAIRNESS = 0.9;
+
+    private static final int FAST_SUBSCRIBERS_PARALLELISM = 2;
+
+    public static void main(String[] args) throws Exception {
+        PriceThrottlerConfig.ExecutionMode executionMode = args.length > 0
+                ? PriceThrottlerConfig.ExecutionMode.valueOf(args[0]) : PriceThrottlerConfig.ExecutionMode.THREAD_POOLS;
+        Path tickFile = Files.createTempFile("ticks", ".csv");
+        boolean passed;
+        try {
+            long recordedCount = TickFile.write(tickFile, newTickSource());
+            passed = isSameTicks(newTickSource(), TickFile.replay(tickFile));
+
+            //Time settings are real, a virtual second is a real millisecond. Parallelism is pinned, so the run doesn't
+            //depend on the machine. Subscribers start in the slow tier until their first onPrice is timed, so it has
+            //a thread per subscriber: cold fast subscribers don't queue behind 30 minute calls
+            PriceThrottlerConfig config = new PriceThrottlerConfig()
+                    .setExecutionMode(executionMode)
+                    .setFastSubscribersParallelism(FAST_SUBSCRIBERS_PARALLELISM)
+                    .setSlowSubscribersParallelism(FAST_SUBSCRIBERS_COUNT + SLOW_SUBSCRIBERS_COUNT)
+                    .setSlowSubscriberRunTimeLowerBoundInMillis(10)
+                    .setShutdownTimeoutInMillis(100);
+            long baselineLag = Long.MAX_VALUE;
+            long lag = Long.MAX_VALUE;
+            for (int run = 1; run <= RUNS_COUNT; ++run) {
+                SimulationReport baseline = new LoadSimulator(config, new VirtualClock(SPEED_UP), newSubscribers(0))
+                        .run(TickFile.replay(tickFile), WARM_UP_IN_NANOS, DRAIN_IN_NANOS);
+                SimulationReport report = new LoadSimulator(config, new VirtualClock(SPEED_UP),
+                        newSubscribers(SLOW_SUBSCRIBERS_COUNT))
+                        .run(TickFile.replay(tickFile), WARM_UP_IN_NANOS, DRAIN_IN_NANOS);
+                if (run == RUNS_COUNT) {
+                    System.out.print(report);
+                }
+                baselineLag = Math.min(baselineLag, baseline.getLagNanos("fast", 0.99));
+                lag = Math.min(lag, report.getLagNanos("fast", 0.99));
+                System.out.println("Run " + run + " fast lag p99 ms " + toMillis(report.getLagNanos("fast", 0.99))
+                        + ", baseline " + toMillis(baseline.getLagNanos("fast", 0.99)));
+
+                if (report.getTicksCount() != recordedCount) {
+                    System.out.println("Replayed " + report.getTicksCount() + " ticks of " + recordedCount);
+                    passed = false;
+                }
+                if (report.getFairness("fast") < MIN_FAIRNESS || report.getMissedFinalRates("fast") > 0) {
+                    System.out.println("Fast subscribers aren't served fairly or miss final rates");
+                    passed = false;
+                }
+                for (SimulationReport.SubscriberResult subscriber : report.getSubscribers()) {
+                    if (subscriber.getDelivered() == 0) {
+                        System.out.println("Subscriber " + subscriber.getName() + " is starved");
+                        passed = false;
+                    }
+                }
+                //Not a failure: a slow onPrice takes up to 30 minutes, the drain is one
+                System.out.println("Slow subscribers missed " + report.getMissedFinalRates("slow")
+                        + " final rates in the drain time");
+            }
+            System.out.println("Best fast lag p99 ms " + toMillis(lag) + ", baseline " + toMillis(baselineLag));
+            if (lag > baselineLag * FAST_MAX_LAG_P99_GROWTH) {
+                System.out.println("Fast subscribers are slowed down");
+                passed = false;
+            }
+        } finally {
+            Files.deleteIfExists(tickFile);
+        }
+        System.out.println(passed ? "Simulation passed" : "Simulation failed");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static List<SimulatedSubscriber> newSubscribers(int slowSubscribersCount) {
+        List<SimulatedSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < FAST_SUBSCRIBERS_COUNT; ++i) {
+            subscribers.add(new SimulatedSubscriber("fast" + i, "fast", TimeUnit.MICROSECONDS.toNanos(1),
+                    TimeUnit.MILLISECONDS.toNanos(1), SEED + i));
+        }
+        for (int i = 0; i < slowSubscribersCount; ++i) {
+            subscribers.add(new SimulatedSubscriber("slow" + i, "slow", TimeUnit.MINUTES.toNanos(1),
+                    TimeUnit.MINUTES.toNanos(30), SEED - i));
+        }
+
+        return subscribers;
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static TickSource newTickSource() {
+        //London and New York session, a burst starts with every hundredth tick
+        return new SyntheticTickSource(SEED, CCY_PAIRS_COUNT, 0.5, DURATION_IN_NANOS, 13, 0.01);
+    }
+
+    private static boolean isSameTicks(TickSource expected, TickSource actual) {
+        for (Tick tick = expected.next(); tick != null; tick = expected.next()) {
+            Tick other = actual.next();
+            if (other == null || !tick.toString().equals(other.toString())) {
+                System.out.println("Ticks of the same seed differ: " + tick + " and " + other);
+                return false;
+            }
+        }
+        if (actual.next() != null) {
+            System.out.println("Ticks of the same seed differ in count");
+            return false;
+        }
+
+        return true;
+    }
+}
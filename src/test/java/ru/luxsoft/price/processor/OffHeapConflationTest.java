@@ -0,0 +1,96 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Subscribes 1000 subscribers to 1000 ccyPairs with conflation state on the heap and off it. Checks every subscriber
+//gets the final rates in both modes and the heap taken by subscribers is smaller off-heap. Exits with status 1 if not
+class OffHeapConflationTest {
+
+    private static final int SUBSCRIBERS_COUNT = 1000;
+
+    private static final int CCY_PAIRS_COUNT = 1000;
+
+    private static final int ROUNDS_COUNT = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        long onHeapBytes = run(false);
+        long offHeapBytes = run(true);
+        boolean passed = onHeapBytes >= 0 && offHeapBytes >= 0;
+        System.out.println("Heap bytes per subscriber on heap " + onHeapBytes / SUBSCRIBERS_COUNT + ", off heap "
+                + offHeapBytes / SUBSCRIBERS_COUNT);
+        if (passed && offHeapBytes >= onHeapBytes) {
+            System.out.println("Off-heap conflation doesn't save the heap");
+            passed = false;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return heap taken by subscriptions or -1 if some subscriber hasn't got the final rates
+     */
+    private static long run(boolean offHeap) throws InterruptedException {
+        MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setCcyPairsCapacity(CCY_PAIRS_COUNT)
+                .setOffHeapConflation(offHeap)
+                .setShutdownTimeoutInMillis(60_000));
+        String[] ccyPairs = new String[CCY_PAIRS_COUNT];
+        for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+            ccyPairs[i] = "CCY" + i;
+            priceThrottler.onPrice(ccyPairs[i], 0);
+        }
+        RateSubscriber[] subscribers = new RateSubscriber[SUBSCRIBERS_COUNT];
+        for (int i = 0; i < SUBSCRIBERS_COUNT; ++i) {
+            subscribers[i] = new RateSubscriber();
+        }
+        long heapBefore = usedHeap(memoryMXBean);
+        for (RateSubscriber subscriber : subscribers) {
+            priceThrottler.subscribe(subscriber);
+        }
+        long heapBytes = usedHeap(memoryMXBean) - heapBefore;
+
+        for (int round = 1; round <= ROUNDS_COUNT; ++round) {
+            for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                priceThrottler.onPrice(ccyPairs[i], round);
+            }
+            Thread.sleep(10);
+        }
+        priceThrottler.shutdown();
+
+        for (RateSubscriber subscriber : subscribers) {
+            for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                if (Double.longBitsToDouble(subscriber.rates.get(i)) != ROUNDS_COUNT) {
+                    System.out.println((offHeap ? "Off-heap" : "On-heap") + " subscriber has got "
+                            + Double.longBitsToDouble(subscriber.rates.get(i)) + " as the final rate of CCY" + i);
+                    return -1;
+                }
+            }
+        }
+
+        return Math.max(0, heapBytes);
+    }
+
+    private static long usedHeap(MemoryMXBean memoryMXBean) throws InterruptedException {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        return memoryMXBean.getHeapMemoryUsage().getUsed();
+    }
+
+    private static class RateSubscriber implements PriceProcessor {
+
+        private final AtomicLongArray rates = new AtomicLongArray(CCY_PAIRS_COUNT);
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            rates.set(Integer.parseInt(ccyPair.substring(3)), Double.doubleToRawLongBits(rate));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+
+//Checks that onPrice allocates nothing in steady state. Exits with status 1 if it does
+class OnPriceAllocationTest {
+
+    private static final int TEST_SUBSCRIBERS_COUNT = 50;
+
+    private static final int TEST_CCY_PAIRS_COUNT = 200;
+
+    private static final int WARM_UP_PRICES_COUNT = 1_000_000;
+
+    private static final int TEST_PRICES_COUNT = 1_000_000;
+
+    public static void main(String[] args) {
+        CountDownLatch release = new CountDownLatch(1);
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setSlowSubscribersParallelism(1)
+                .setFastSubscribersParallelism(1));
+        //Subscribers stay busy, so every onPrice call only conflates the price and wakes nobody up
+        for (int i = 0; i < TEST_SUBSCRIBERS_COUNT; ++i) {
+            priceThrottler.subscribe((ccyPair, rate) -> awaitQuietly(release));
+        }
+
+        String[] ccyPairs = new String[TEST_CCY_PAIRS_COUNT];
+        for (int i = 0; i < ccyPairs.length; ++i) {
+            ccyPairs[i] = "CCY" + i;
+        }
+        publish(priceThrottler, ccyPairs, WARM_UP_PRICES_COUNT);
+
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        publish(priceThrottler, ccyPairs, TEST_PRICES_COUNT);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        release.countDown();
+        priceThrottler.shutdown();
+
+        System.out.println("Allocated bytes for " + TEST_PRICES_COUNT + " onPrice calls: " + allocated);
+        //getThreadAllocatedBytes may allocate its own small result
+        if (allocated > 1024) {
+            System.exit(1);
+        }
+    }
+
+    private static void publish(PriceThrottler priceThrottler, String[] ccyPairs, int pricesCount) {
+        for (int i = 0; i < pricesCount; ++i) {
+            priceThrottler.onPrice(ccyPairs[i % ccyPairs.length], i);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
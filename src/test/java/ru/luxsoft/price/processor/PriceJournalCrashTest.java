@@ -0,0 +1,169 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+import ru.luxsoft.price.processor.throttler.price.PriceJournal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Kills a process writing the journal from several threads and checks every restored record is one whole write and
+//opening the journal again, as a crash right after a restart does, loses nothing. Then restarts a throttler from its
+//journal and checks last prices come back. Exits with status 1 if they don't
+class PriceJournalCrashTest {
+
+    private static final int CCY_PAIRS_COUNT = 50;
+
+    private static final int WRITERS_COUNT = 4;
+
+    private static final int CRASHES_COUNT = 5;
+
+    //Layout of the journal file, see PriceJournal
+    private static final int HEADER_SIZE = 64;
+
+    private static final int RECORD_SIZE = 64;
+
+    private static final int RATE_OFFSET = 8;
+
+    private static final int NAME_OFFSET = 44;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("write")) {
+            write(Paths.get(args[1]));
+            return;
+        }
+
+        Path path = Files.createTempFile("price-journal", ".dat");
+        boolean passed = true;
+        try {
+            for (int i = 0; i < CRASHES_COUNT; ++i) {
+                passed &= checkCrash(path, i == 0);
+            }
+            passed &= checkRestart(path);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+        System.out.println(passed ? "No torn records restored" : "Failed");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean checkCrash(Path path, boolean corrupt) throws IOException, InterruptedException {
+        Files.deleteIfExists(path);
+        Process writer = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), PriceJournalCrashTest.class.getName(), "write",
+                path.toString())
+                .redirectErrorStream(true)
+                .start();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(writer.getInputStream()))) {
+            output.readLine();
+            Thread.sleep(200);
+            writer.destroyForcibly().waitFor();
+        }
+
+        //A half written record, a record damaged by the disk and a record with a damaged name
+        if (corrupt) {
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.seek(HEADER_SIZE);
+                file.writeLong(Long.reverseBytes(file.readLong() + 1));
+                file.seek(HEADER_SIZE + RECORD_SIZE + RATE_OFFSET);
+                file.writeLong(file.readLong() ^ 1);
+                file.seek(HEADER_SIZE + 2 * RECORD_SIZE + NAME_OFFSET + 1);
+                file.writeByte('D');
+            }
+        }
+
+        int restoredCount;
+        try (PriceJournal priceJournal = PriceJournal.open(path, CCY_PAIRS_COUNT)) {
+            int wholeRecordsCount = 0;
+            boolean corruptedRestored = false;
+            for (PriceJournal.Record record : priceJournal.getRestoredRecords()) {
+                if (record.getTickRate() == record.getRate() * 2 && record.getEpochMillis() == record.getRate() * 3
+                        && record.getCcyPair().equals("CCY" + (long) record.getRate() % CCY_PAIRS_COUNT)) {
+                    ++wholeRecordsCount;
+                }
+                corruptedRestored |= corrupt && (record.getCcyPair().equals("CCY0")
+                        || record.getCcyPair().equals("CCY1") || record.getCcyPair().startsWith("CDY"));
+            }
+            System.out.println("Restored " + priceJournal.getRestoredRecords().size() + " records, "
+                    + wholeRecordsCount + " whole, " + priceJournal.getTornRecordsCount() + " torn");
+            restoredCount = priceJournal.getRestoredRecords().size();
+            //A writer may be killed in the middle of a write
+            if (wholeRecordsCount != restoredCount || corruptedRestored
+                    || wholeRecordsCount + priceJournal.getTornRecordsCount() != CCY_PAIRS_COUNT
+                    || wholeRecordsCount < CCY_PAIRS_COUNT - 3 - WRITERS_COUNT) {
+                return false;
+            }
+        }
+
+        //Nothing was written since the compaction, so the compacted journal has to restore the same records
+        try (PriceJournal priceJournal = PriceJournal.open(path, CCY_PAIRS_COUNT)) {
+            if (priceJournal.getRestoredRecords().size() != restoredCount || priceJournal.getTornRecordsCount() != 0) {
+                System.out.println("Reopened journal restored " + priceJournal.getRestoredRecords().size()
+                        + " records of " + restoredCount);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean checkRestart(Path path) throws InterruptedException, IOException {
+        Files.deleteIfExists(path);
+        PriceThrottlerConfig config = new PriceThrottlerConfig().setPriceJournalPath(path.toString());
+        PriceThrottler priceThrottler = new PriceThrottler(config);
+        for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+            priceThrottler.onPrice("CCY" + i, i);
+        }
+        priceThrottler.onPrice("EURRUB", 90.5);
+        priceThrottler.shutdown();
+
+        PriceThrottler restartedPriceThrottler = new PriceThrottler(config);
+        BookSubscriber subscriber = new BookSubscriber();
+        restartedPriceThrottler.subscribe(subscriber);
+        Thread.sleep(500);
+        restartedPriceThrottler.shutdown();
+
+        if (restartedPriceThrottler.getLatest("EURRUB") != 90.5 || restartedPriceThrottler.getLatest("CCY7") != 7
+                || subscriber.book.size() != CCY_PAIRS_COUNT + 1) {
+            System.out.println("Restarted throttler restored " + subscriber.book.size() + " ccyPairs of "
+                    + (CCY_PAIRS_COUNT + 1));
+            return false;
+        }
+
+        return true;
+    }
+
+    //Runs in the killed process
+    private static void write(Path path) throws InterruptedException {
+        PriceJournal priceJournal = PriceJournal.open(path, CCY_PAIRS_COUNT);
+        Thread[] writers = new Thread[WRITERS_COUNT];
+        for (int i = 0; i < writers.length; ++i) {
+            writers[i] = new Thread(() -> {
+                for (long n = 1; ; ++n) {
+                    int id = (int) (n % CCY_PAIRS_COUNT);
+                    priceJournal.write(id, "CCY" + id, n, n * 2, n * 3);
+                }
+            });
+            writers[i].start();
+        }
+        System.out.println("Writing");
+        writers[0].join();
+    }
+
+    private static class BookSubscriber implements PriceProcessor {
+
+        private final Map<String, Double> book = new ConcurrentHashMap<>();
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            book.put(ccyPair, rate);
+        }
+    }
+}
@@ -3,11 +3,13 @@ package ru.luxsoft.price.processor;
 import ru.luxsoft.price.processor.subscriber.PrinterSubscriber;
 import ru.luxsoft.price.processor.subscriber.ScreenSubscriber;
 import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
 
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 //Просто класс с main методом для тестов
@@ -30,7 +32,9 @@ class PriceThrottlerTest {
     private static final int TEST_PRICES_COUNT = 10;
 
     public static void main(String[] args) {
-        PriceThrottler priceThrottler = createThrottler();
+        PriceThrottlerConfig.ExecutionMode executionMode = args.length > 0
+                ? PriceThrottlerConfig.ExecutionMode.valueOf(args[0]) : PriceThrottlerConfig.ExecutionMode.THREAD_POOLS;
+        PriceThrottler priceThrottler = createThrottler(executionMode);
         publishTestPrices(priceThrottler);
 
         Scanner scanner = new Scanner(System.in);
@@ -40,7 +44,7 @@ class PriceThrottlerTest {
                 System.out.println("Throttler statistic:");
                 System.out.println("Slow handled prices counter " + SLOW_HANDLED_PRICES_COUNTER.get());
                 System.out.println("Fast handled prices counter " + FAST_HANDLED_PRICES_COUNTER.get());
-                priceThrottler.printStats();
+                System.out.println(priceThrottler.getMetrics());
             } else if (cmd.equals("q")) {
                 System.out.println("Shutting down...");
                 priceThrottler.shutdown();
@@ -61,9 +65,13 @@ class PriceThrottlerTest {
         System.out.println("ccPairs " + ccPairs.toString());
     }
 
-    private static PriceThrottler createThrottler() {
-        PriceThrottler priceThrottler = new PriceThrottler(SLOW_SUBSCRIBERS_PARALLELISM, FAST_SUBSCRIBERS_PARALLELISM,
-                SLOW_SUBSCRIBER_RUN_TIME_LOWER_BOUND_IN_SECONDS);
+    private static PriceThrottler createThrottler(PriceThrottlerConfig.ExecutionMode executionMode) {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setExecutionMode(executionMode)
+                .setSlowSubscribersParallelism(SLOW_SUBSCRIBERS_PARALLELISM)
+                .setFastSubscribersParallelism(FAST_SUBSCRIBERS_PARALLELISM)
+                .setSlowSubscriberRunTimeLowerBoundInMillis(TimeUnit.SECONDS.toMillis(SLOW_SUBSCRIBER_RUN_TIME_LOWER_BOUND_IN_SECONDS))
+                .setJmxObjectName("ru.luxsoft.price:type=PriceThrottler,name=test"));
         for (int i = 0; i < TEST_SLOW_SUBSCRIBERS_COUNT; ++i) {
             priceThrottler.subscribe(new PrinterSubscriber(SLOW_HANDLED_PRICES_COUNTER));
         }
@@ -0,0 +1,235 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+import ru.luxsoft.price.processor.throttler.metrics.MetricsSnapshot;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//Floods busy subscribers and changes parallelism and the slow subscriber lower bound while deliveries go on, then
+//lets self-tuning size the pools. Checks throughput follows parallelism, subscribers follow the bound, self-tuning
+//grows pools under the load and shrinks them when idle, every subscriber gets the final rates and wrong settings are
+//rejected at once. Exits with status 1 if not
+class RuntimeReconfigurationTest {
+
+    private static final int SUBSCRIBERS_COUNT = 8;
+
+    private static final int CCY_PAIRS_COUNT = 10;
+
+    private static final long ON_PRICE_IN_MILLIS = 2;
+
+    private static final long MEASURE_IN_MILLIS = 1000;
+
+    private static final double FINAL_RATE = -1;
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean passed = checkControl() & checkSelfTuning() & checkConfigValidation();
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean checkControl() throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setSlowSubscribersParallelism(1)
+                .setFastSubscribersParallelism(1)
+                .setShutdownTimeoutInMillis(10_000));
+        BusySubscriber[] subscribers = subscribe(priceThrottler);
+        Flood flood = new Flood(priceThrottler);
+        flood.start();
+        boolean passed = true;
+
+        Thread.sleep(MEASURE_IN_MILLIS);
+        long oneThreadDelivered = measure(subscribers);
+        priceThrottler.setFastSubscribersParallelism(4);
+        Thread.sleep(MEASURE_IN_MILLIS / 4);
+        long fourThreadsDelivered = measure(subscribers);
+        System.out.println("Delivered in " + MEASURE_IN_MILLIS + " millis by one fast thread " + oneThreadDelivered
+                + ", by four " + fourThreadsDelivered);
+        if (priceThrottler.getFastSubscribersParallelism() != 4 || fourThreadsDelivered < oneThreadDelivered * 2) {
+            System.out.println("Fast parallelism hasn't grown");
+            passed = false;
+        }
+
+        priceThrottler.setSlowSubscriberRunTimeLowerBoundInMillis(1);
+        Thread.sleep(MEASURE_IN_MILLIS);
+        if (!allInTier(priceThrottler.getMetrics(), "SLOW")) {
+            System.out.println("Subscribers haven't moved to the slow tier after the bound has gone down");
+            passed = false;
+        }
+        priceThrottler.setSlowSubscriberRunTimeLowerBoundInMillis(1000);
+        Thread.sleep(MEASURE_IN_MILLIS);
+        if (!allInTier(priceThrottler.getMetrics(), "FAST")) {
+            System.out.println("Subscribers haven't moved back to the fast tier after the bound has gone up");
+            passed = false;
+        }
+        try {
+            priceThrottler.setMediumSubscriberRunTimeLowerBoundInMillis(100);
+            System.out.println("The medium bound is set without the medium tier");
+            passed = false;
+        } catch (IllegalStateException expected) {
+            //There is no medium tier
+        }
+
+        priceThrottler.setFastSubscribersParallelism(1);
+        flood.stop();
+        for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+            priceThrottler.onPrice("CCY" + i, FINAL_RATE);
+        }
+        priceThrottler.shutdown();
+        System.out.print(priceThrottler.getMetrics());
+
+        return hasFinalRates(subscribers) && passed;
+    }
+
+    private static boolean checkSelfTuning() throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setSlowSubscribersParallelism(1)
+                .setFastSubscribersParallelism(1)
+                .setSelfTuningPeriodInMillis(200)
+                .setSelfTuningMinParallelism(1)
+                .setSelfTuningMaxParallelism(4)
+                .setShutdownTimeoutInMillis(10_000));
+        BusySubscriber[] subscribers = subscribe(priceThrottler);
+        Flood flood = new Flood(priceThrottler);
+        flood.start();
+        boolean passed = true;
+
+        Thread.sleep(3 * MEASURE_IN_MILLIS);
+        int loadedParallelism = priceThrottler.getFastSubscribersParallelism();
+        flood.stop();
+        for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+            priceThrottler.onPrice("CCY" + i, FINAL_RATE);
+        }
+        Thread.sleep(3 * MEASURE_IN_MILLIS);
+        int idleParallelism = priceThrottler.getFastSubscribersParallelism();
+        System.out.println("Self-tuned fast parallelism under the load " + loadedParallelism + ", idle "
+                + idleParallelism);
+        if (loadedParallelism != 4 || idleParallelism != 1) {
+            System.out.println("Self-tuning hasn't followed the load");
+            passed = false;
+        }
+        priceThrottler.shutdown();
+
+        return hasFinalRates(subscribers) && passed;
+    }
+
+    private static boolean checkConfigValidation() {
+        PriceThrottlerConfig config = new PriceThrottlerConfig();
+        List<Runnable> wrongSettings = List.of(
+                () -> config.setFastSubscribersParallelism(0),
+                () -> config.setSlowSubscribersParallelism(-1),
+                () -> config.setMediumSubscribersParallelism(-1),
+                () -> config.setSlowSubscriberRunTimeLowerBoundInMillis(0),
+                () -> config.setTickRateHalfLifeInMillis(0),
+                () -> config.setIngestionRingBufferSize(1000),
+                () -> config.setShardsCount(0),
+                () -> config.setCcyPairsCapacity(0),
+                () -> config.setShutdownTimeoutInMillis(-1),
+                () -> config.setSelfTuningPeriodInMillis(-1),
+                () -> config.setSelfTuningMaxParallelism(0));
+        boolean passed = true;
+        for (int i = 0; i < wrongSettings.size(); ++i) {
+            try {
+                wrongSettings.get(i).run();
+                System.out.println("Wrong setting " + i + " is accepted");
+                passed = false;
+            } catch (IllegalArgumentException expected) {
+                //Rejected by the setter
+            }
+        }
+
+        return passed;
+    }
+
+    private static BusySubscriber[] subscribe(PriceThrottler priceThrottler) {
+        BusySubscriber[] subscribers = new BusySubscriber[SUBSCRIBERS_COUNT];
+        for (int i = 0; i < SUBSCRIBERS_COUNT; ++i) {
+            subscribers[i] = new BusySubscriber();
+            priceThrottler.subscribe(subscribers[i]);
+        }
+
+        return subscribers;
+    }
+
+    private static long measure(BusySubscriber[] subscribers) throws InterruptedException {
+        long start = 0;
+        for (BusySubscriber subscriber : subscribers) {
+            start += subscriber.delivered.get();
+        }
+        Thread.sleep(MEASURE_IN_MILLIS);
+        long end = 0;
+        for (BusySubscriber subscriber : subscribers) {
+            end += subscriber.delivered.get();
+        }
+
+        return end - start;
+    }
+
+    private static boolean allInTier(MetricsSnapshot metrics, String tier) {
+        return metrics.getSubscribers().stream().allMatch(subscriber -> subscriber.getTier().equals(tier));
+    }
+
+    private static boolean hasFinalRates(BusySubscriber[] subscribers) {
+        for (BusySubscriber subscriber : subscribers) {
+            for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                if (Double.longBitsToDouble(subscriber.rates.get(i)) != FINAL_RATE) {
+                    System.out.println("Subscriber has got " + Double.longBitsToDouble(subscriber.rates.get(i))
+                            + " as the final rate of CCY" + i);
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static class Flood {
+
+        private final Thread thread;
+
+        Flood(PriceThrottler priceThrottler) {
+            this.thread = new Thread(() -> {
+                long round = 0;
+                while (!Thread.currentThread().isInterrupted()) {
+                    ++round;
+                    for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                        priceThrottler.onPrice("CCY" + i, round);
+                    }
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private static class BusySubscriber implements PriceProcessor {
+
+        private final AtomicLong delivered = new AtomicLong();
+
+        private final AtomicLongArray rates = new AtomicLongArray(CCY_PAIRS_COUNT);
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            try {
+                Thread.sleep(ON_PRICE_IN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rates.set(Integer.parseInt(ccyPair.substring(3)), Double.doubleToRawLongBits(rate));
+            delivered.incrementAndGet();
+        }
+    }
+}
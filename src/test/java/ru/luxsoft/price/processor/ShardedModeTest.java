@@ -0,0 +1,84 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Publishes bursts of prices to many fast and a few slow subscribers in sharded mode and checks every subscriber gets
+//the final rate of every ccyPair. Exits with status 1 if one doesn't
+class ShardedModeTest {
+
+    private static final int FAST_SUBSCRIBERS_COUNT = 200;
+
+    private static final int SLOW_SUBSCRIBERS_COUNT = 5;
+
+    private static final int CCY_PAIRS_COUNT = 50;
+
+    private static final int ROUNDS_COUNT = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setExecutionMode(PriceThrottlerConfig.ExecutionMode.SHARDS)
+                .setShardsCount(4)
+                .setSlowSubscriberRunTimeLowerBoundInMillis(5));
+        BookSubscriber[] subscribers = new BookSubscriber[FAST_SUBSCRIBERS_COUNT + SLOW_SUBSCRIBERS_COUNT];
+        for (int i = 0; i < subscribers.length; ++i) {
+            subscribers[i] = new BookSubscriber(i < SLOW_SUBSCRIBERS_COUNT ? 10 : 0);
+            priceThrottler.subscribe(subscribers[i]);
+        }
+
+        for (int round = 1; round <= ROUNDS_COUNT; ++round) {
+            for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                priceThrottler.onPrice("CCY" + i, round);
+            }
+            Thread.sleep(5);
+        }
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 5000 && !allGotFinalRates(subscribers)) {
+            Thread.sleep(50);
+        }
+        priceThrottler.shutdown();
+
+        System.out.print(priceThrottler.getMetrics());
+        boolean passed = allGotFinalRates(subscribers);
+        System.out.println(passed ? "Every subscriber got final rates" : "Final rates are lost");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean allGotFinalRates(BookSubscriber[] subscribers) {
+        for (BookSubscriber subscriber : subscribers) {
+            for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                if (subscriber.book.getOrDefault("CCY" + i, 0.0) != ROUNDS_COUNT) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static class BookSubscriber implements PriceProcessor {
+
+        private final Map<String, Double> book = new ConcurrentHashMap<>();
+
+        private final long sleepInMillis;
+
+        BookSubscriber(long sleepInMillis) {
+            this.sleepInMillis = sleepInMillis;
+        }
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            if (sleepInMillis > 0) {
+                try {
+                    Thread.sleep(sleepInMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            book.put(ccyPair, rate);
+        }
+    }
+}
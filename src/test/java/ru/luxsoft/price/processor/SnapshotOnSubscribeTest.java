@@ -0,0 +1,51 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Publishes prices before anybody subscribes and checks a late subscriber gets the current book at once and
+//getLatest reads it. Exits with status 1 if it doesn't
+class SnapshotOnSubscribeTest {
+
+    private static final int CCY_PAIRS_COUNT = 100;
+
+    public static void main(String[] args) throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig());
+        for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+            priceThrottler.onPrice("CCY" + i, i);
+        }
+        priceThrottler.onPrice("EURRUB", 90.5);
+
+        BookSubscriber lateSubscriber = new BookSubscriber();
+        priceThrottler.subscribe(lateSubscriber);
+        Thread.sleep(500);
+        priceThrottler.shutdown();
+
+        boolean passed = true;
+        if (lateSubscriber.book.size() != CCY_PAIRS_COUNT + 1 || lateSubscriber.book.get("EURRUB") != 90.5) {
+            System.out.println("Late subscriber got " + lateSubscriber.book.size() + " ccyPairs of "
+                    + (CCY_PAIRS_COUNT + 1));
+            passed = false;
+        }
+        if (priceThrottler.getLatest("EURRUB") != 90.5 || priceThrottler.getLatest("CCY7") != 7
+                || !Double.isNaN(priceThrottler.getLatest("USDJPY"))) {
+            System.out.println("getLatest doesn't read last prices");
+            passed = false;
+        }
+        System.out.println(passed ? "Late subscriber got the whole book" : "Failed");
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static class BookSubscriber implements PriceProcessor {
+
+        private final Map<String, Double> book = new ConcurrentHashMap<>();
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            book.put(ccyPair, rate);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+import ru.luxsoft.price.processor.throttler.metrics.LatencyHistogram;
+import ru.luxsoft.price.processor.throttler.metrics.MetricsSnapshot;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//Floods the throttler with frequent ccyPairs and checks the rare one reaches every subscriber within its max age and
+//the onPrice latency histograms of slow subscribers read over JMX merge into a median of their onPrice time.
+//Exits with status 1 if it isn't so
+class StalenessSlaTest {
+
+    private static final String RARE_CCY_PAIR = "EURRUB";
+
+    private static final long RARE_MAX_AGE_IN_MILLIS = 200;
+
+    private static final long RARE_TICK_PERIOD_IN_MILLIS = 300;
+
+    private static final int FREQUENT_CCY_PAIRS_COUNT = 100;
+
+    private static final int TEST_FAST_SUBSCRIBERS_COUNT = 20;
+
+    private static final int TEST_SLOW_SUBSCRIBERS_COUNT = 10;
+
+    private static final long TEST_DURATION_IN_MILLIS = 5000;
+
+    private static final long SLOW_ON_PRICE_TIME_IN_MILLIS = 20;
+
+    private static final String JMX_OBJECT_NAME = "ru.luxsoft.price:type=PriceThrottler,name=staleness";
+
+    public static void main(String[] args) throws InterruptedException, JMException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setSlowSubscribersParallelism(2)
+                .setFastSubscribersParallelism(2)
+                .setSlowSubscriberRunTimeLowerBoundInMillis(10)
+                .setMaxPriceAgeInMillis(RARE_CCY_PAIR, RARE_MAX_AGE_IN_MILLIS)
+                .setJmxObjectName(JMX_OBJECT_NAME));
+
+        List<LagSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < TEST_FAST_SUBSCRIBERS_COUNT; ++i) {
+            subscribers.add(new LagSubscriber(1));
+        }
+        for (int i = 0; i < TEST_SLOW_SUBSCRIBERS_COUNT; ++i) {
+            subscribers.add(new LagSubscriber(SLOW_ON_PRICE_TIME_IN_MILLIS));
+        }
+        subscribers.forEach(priceThrottler::subscribe);
+
+        Thread flooder = new Thread(() -> {
+            long tick = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                priceThrottler.onPrice("EURUSD" + tick % FREQUENT_CCY_PAIRS_COUNT, tick++);
+            }
+        });
+        flooder.start();
+
+        long end = System.currentTimeMillis() + TEST_DURATION_IN_MILLIS;
+        while (System.currentTimeMillis() < end) {
+            //The rate is the publishing time, so subscribers know the lag
+            priceThrottler.onPrice(RARE_CCY_PAIR, System.nanoTime());
+            Thread.sleep(RARE_TICK_PERIOD_IN_MILLIS);
+        }
+        flooder.interrupt();
+        flooder.join();
+
+        long worstLag = 0;
+        for (LagSubscriber subscriber : subscribers) {
+            worstLag = Math.max(worstLag, subscriber.worstLagInNanos.get());
+        }
+        MetricsSnapshot metrics = priceThrottler.getMetrics();
+        LatencyHistogram.Snapshot slowOnPriceLatency = getSlowOnPriceLatency();
+        priceThrottler.shutdown();
+
+        metrics.getCcyPairs().stream()
+                .filter(ccyPair -> ccyPair.getCcyPair().equals(RARE_CCY_PAIR))
+                .forEach(System.out::println);
+        System.out.println("Worst " + RARE_CCY_PAIR + " lag in millis " + TimeUnit.NANOSECONDS.toMillis(worstLag));
+        System.out.println("Slow subscribers onPrice calls " + slowOnPriceLatency.getCount() + ", p50 ns "
+                + slowOnPriceLatency.getP50InNanos());
+        boolean passed = worstLag <= TimeUnit.MILLISECONDS.toNanos(RARE_MAX_AGE_IN_MILLIS * 2);
+        if (slowOnPriceLatency.getCount() == 0
+                || slowOnPriceLatency.getP50InNanos() < TimeUnit.MILLISECONDS.toNanos(SLOW_ON_PRICE_TIME_IN_MILLIS)) {
+            System.out.println("Merged onPrice latency of slow subscribers doesn't match their onPrice time");
+            passed = false;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    //Merges the onPrice latency bucket counts of slow subscribers as a JMX client sees them
+    private static LatencyHistogram.Snapshot getSlowOnPriceLatency() throws JMException {
+        CompositeData metrics = (CompositeData) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(new ObjectName(JMX_OBJECT_NAME), "Metrics");
+        LatencyHistogram.Snapshot merged = new LatencyHistogram().snapshot();
+        for (CompositeData subscriber : (CompositeData[]) metrics.get("subscribers")) {
+            if (subscriber.get("tier").equals("SLOW")) {
+                merged = merged.merge(
+                        new LatencyHistogram.Snapshot((long[]) subscriber.get("onPriceLatencyBucketCounts")));
+            }
+        }
+
+        return merged;
+    }
+
+    private static class LagSubscriber implements PriceProcessor {
+
+        private final long onPriceTimeInMillis;
+
+        private final AtomicLong worstLagInNanos = new AtomicLong();
+
+        LagSubscriber(long onPriceTimeInMillis) {
+            this.onPriceTimeInMillis = onPriceTimeInMillis;
+        }
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            if (ccyPair.equals(RARE_CCY_PAIR)) {
+                long lag = System.nanoTime() - (long) rate;
+                worstLagInNanos.accumulateAndGet(lag, Math::max);
+            }
+            try {
+                Thread.sleep(onPriceTimeInMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
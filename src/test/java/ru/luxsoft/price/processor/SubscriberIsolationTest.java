@@ -0,0 +1,169 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+import ru.luxsoft.price.processor.throttler.metrics.MetricsSnapshot;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+//Subscribes a hung subscriber, throwing ones and a healthy one to the same single thread pool and checks the healthy
+//one still gets every last price, the others are isolated, shutdown is bounded and prices after it are dropped.
+//Exits with status 1 if it isn't so
+class SubscriberIsolationTest {
+
+    private static final long DELIVERY_DEADLINE_IN_MILLIS = 100;
+
+    private static final long SHUTDOWN_TIMEOUT_IN_MILLIS = 500;
+
+    private static final int CIRCUIT_BREAKER_FAILURES_THRESHOLD = 3;
+
+    private static final int TICKS_COUNT = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setSlowSubscribersParallelism(1)
+                .setFastSubscribersParallelism(1)
+                .setDeliveryDeadlineInMillis(DELIVERY_DEADLINE_IN_MILLIS)
+                .setCircuitBreakerFailuresThreshold(CIRCUIT_BREAKER_FAILURES_THRESHOLD)
+                .setCircuitBreakerOpenTimeInMillis(60_000)
+                .setShutdownTimeoutInMillis(SHUTDOWN_TIMEOUT_IN_MILLIS));
+
+        HungSubscriber hungSubscriber = new HungSubscriber();
+        ThrowingSubscriber throwingSubscriber = new ThrowingSubscriber();
+        ErrorSubscriber errorSubscriber = new ErrorSubscriber();
+        HealthySubscriber healthySubscriber = new HealthySubscriber();
+        priceThrottler.subscribe(hungSubscriber);
+        priceThrottler.subscribe(throwingSubscriber);
+        priceThrottler.subscribe(errorSubscriber);
+        priceThrottler.subscribe(healthySubscriber);
+
+        for (int i = 1; i <= TICKS_COUNT; ++i) {
+            priceThrottler.onPrice("EURUSD", i);
+            Thread.sleep(10);
+        }
+        Thread.sleep(DELIVERY_DEADLINE_IN_MILLIS * 3);
+
+        boolean passed = true;
+        MetricsSnapshot metrics = priceThrottler.getMetrics();
+        System.out.print(metrics);
+        for (MetricsSnapshot.SubscriberStats subscriber : metrics.getSubscribers()) {
+            if (subscriber.getName().equals(hungSubscriber.toString()) && !subscriber.isQuarantined()) {
+                System.out.println("Hung subscriber isn't quarantined");
+                passed = false;
+            }
+            if ((subscriber.getName().equals(throwingSubscriber.toString())
+                    || subscriber.getName().equals(errorSubscriber.toString()))
+                    && (!subscriber.isCircuitOpen() || subscriber.getFailures() != CIRCUIT_BREAKER_FAILURES_THRESHOLD)) {
+                System.out.println("Circuit breaker of " + subscriber.getName() + " subscriber isn't open after "
+                        + CIRCUIT_BREAKER_FAILURES_THRESHOLD + " failures");
+                passed = false;
+            }
+        }
+        if (healthySubscriber.lastRate != TICKS_COUNT) {
+            System.out.println("Healthy subscriber got " + healthySubscriber.lastRate + " instead of " + TICKS_COUNT);
+            passed = false;
+        }
+
+        priceThrottler.onPrice("EURUSD", TICKS_COUNT + 1);
+        long shutdownStart = System.nanoTime();
+        priceThrottler.shutdown();
+        long shutdownTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - shutdownStart);
+        hungSubscriber.release.countDown();
+
+        System.out.println("Shutdown took " + shutdownTime + " millis");
+        if (shutdownTime > SHUTDOWN_TIMEOUT_IN_MILLIS * 2) {
+            passed = false;
+        }
+        if (healthySubscriber.lastRate != TICKS_COUNT + 1) {
+            System.out.println("Pending price isn't delivered on shutdown");
+            passed = false;
+        }
+        try {
+            priceThrottler.onPrice("EURUSD", TICKS_COUNT + 2);
+            Thread.sleep(DELIVERY_DEADLINE_IN_MILLIS);
+            if (healthySubscriber.lastRate != TICKS_COUNT + 1 || priceThrottler.getLatest("EURUSD") != TICKS_COUNT + 1) {
+                System.out.println("Price is taken after shutdown");
+                passed = false;
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Price after shutdown fails with " + e);
+            passed = false;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    //Ignores interrupts, so only quarantine helps
+    private static class HungSubscriber implements PriceProcessor {
+
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            while (release.getCount() > 0) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    //Hung for real
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "hung";
+        }
+    }
+
+    private static class ThrowingSubscriber implements PriceProcessor {
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            throw new IllegalStateException("Broken subscriber");
+        }
+
+        @Override
+        public String toString() {
+            return "throwing";
+        }
+    }
+
+    //Throws an error and a checked exception by turns, neither may kill the delivery thread
+    private static class ErrorSubscriber implements PriceProcessor {
+
+        private int calls;
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            if (++calls % 2 == 1) {
+                throw new AssertionError("Broken subscriber");
+            }
+            ErrorSubscriber.<RuntimeException>sneakyThrow(new Exception("Broken subscriber"));
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T extends Throwable> void sneakyThrow(Throwable throwable) throws T {
+            throw (T) throwable;
+        }
+
+        @Override
+        public String toString() {
+            return "error";
+        }
+    }
+
+    private static class HealthySubscriber implements PriceProcessor {
+
+        private volatile double lastRate;
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            lastRate = rate;
+        }
+
+        @Override
+        public String toString() {
+            return "healthy";
+        }
+    }
+}
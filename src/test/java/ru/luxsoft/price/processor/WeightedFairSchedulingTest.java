@@ -0,0 +1,124 @@
+package ru.luxsoft.price.processor;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+import ru.luxsoft.price.processor.throttler.PriorityClass;
+import ru.luxsoft.price.processor.throttler.SubscriberOptions;
+import ru.luxsoft.price.processor.throttler.metrics.MetricsSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+//Floods subscribers of every priority class sharing one delivery thread and checks they share its time by their
+//classes and weights, and the low class isn't starved. Exits with status 1 if they don't
+class WeightedFairSchedulingTest {
+
+    private static final int CCY_PAIRS_COUNT = 20;
+
+    private static final long ON_PRICE_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long WARM_UP_IN_MILLIS = 1000;
+
+    private static final long MEASURE_IN_MILLIS = 3000;
+
+    public static void main(String[] args) throws InterruptedException {
+        PriceThrottler priceThrottler = new PriceThrottler(new PriceThrottlerConfig()
+                .setSlowSubscribersParallelism(1)
+                .setFastSubscribersParallelism(1)
+                .setShutdownTimeoutInMillis(100));
+        priceThrottler.subscribe(new BusySubscriber("high"), new SubscriberOptions()
+                .setPriorityClass(PriorityClass.HIGH));
+        priceThrottler.subscribe(new BusySubscriber("normal3"), new SubscriberOptions()
+                .setPriorityClass(PriorityClass.NORMAL)
+                .setWeight(3));
+        priceThrottler.subscribe(new BusySubscriber("normal1"), new SubscriberOptions()
+                .setPriorityClass(PriorityClass.NORMAL));
+        priceThrottler.subscribe(new BusySubscriber("low"), new SubscriberOptions()
+                .setPriorityClass(PriorityClass.LOW));
+
+        //Every subscriber always has pending prices, so only the scheduler decides who runs
+        Thread flood = new Thread(() -> {
+            long round = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                ++round;
+                for (int i = 0; i < CCY_PAIRS_COUNT; ++i) {
+                    priceThrottler.onPrice("CCY" + i, round);
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        flood.start();
+        Thread.sleep(WARM_UP_IN_MILLIS);
+        Map<String, Long> start = getThreadTimes(priceThrottler.getMetrics());
+        Thread.sleep(MEASURE_IN_MILLIS);
+        MetricsSnapshot metrics = priceThrottler.getMetrics();
+        Map<String, Long> end = getThreadTimes(metrics);
+        flood.interrupt();
+        flood.join();
+        priceThrottler.shutdown();
+
+        System.out.print(metrics);
+        Map<String, Double> shares = new HashMap<>();
+        long total = 0;
+        for (String name : end.keySet()) {
+            total += end.get(name) - start.get(name);
+        }
+        for (String name : end.keySet()) {
+            shares.put(name, (double) (end.get(name) - start.get(name)) / total);
+        }
+        System.out.println("Thread time shares " + shares);
+
+        boolean passed = true;
+        if (!(shares.get("high") > shares.get("normal3") && shares.get("normal3") > shares.get("normal1")
+                && shares.get("high") > shares.get("low"))) {
+            System.out.println("Thread time isn't shared by priority classes");
+            passed = false;
+        }
+        if (shares.get("low") < 0.02) {
+            System.out.println("Low priority class is starved");
+            passed = false;
+        }
+        double normalRatio = shares.get("normal3") / shares.get("normal1");
+        if (normalRatio < 2 || normalRatio > 4.5) {
+            System.out.println("Subscribers of weights 3 and 1 got thread time in ratio " + normalRatio);
+            passed = false;
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static Map<String, Long> getThreadTimes(MetricsSnapshot metrics) {
+        Map<String, Long> threadTimes = new HashMap<>();
+        for (MetricsSnapshot.SubscriberStats subscriber : metrics.getSubscribers()) {
+            threadTimes.put(subscriber.getName(), subscriber.getThreadTimeInNanos());
+        }
+
+        return threadTimes;
+    }
+
+    private static class BusySubscriber implements PriceProcessor {
+
+        private final String name;
+
+        BusySubscriber(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void onPrice(String ccyPair, double rate) {
+            long start = System.nanoTime();
+            while (System.nanoTime() - start < ON_PRICE_IN_NANOS) {
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
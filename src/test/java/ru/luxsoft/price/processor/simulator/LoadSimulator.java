@@ -0,0 +1,62 @@
+package ru.luxsoft.price.processor.simulator;
+
+import ru.luxsoft.price.processor.throttler.PriceThrottler;
+import ru.luxsoft.price.processor.throttler.PriceThrottlerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Drives a throttler with ticks at their virtual times and reports how subscribers kept up. We need this to catch
+ * scheduling regressions, fast subscribers slowed down by slow ones for example, with reproducible load.
+ *
+ * The clock, ticks and onPrice times are virtual and seeded, the throttler runs on real threads. Time settings of
+ * the throttler config are real, so scale them down by the speed up of the clock.
+ */
+public class LoadSimulator {
+
+    private final PriceThrottlerConfig config;
+
+    private final VirtualClock virtualClock;
+
+    private final List<SimulatedSubscriber> subscribers;
+
+    public LoadSimulator(PriceThrottlerConfig config, VirtualClock virtualClock,
+                         List<SimulatedSubscriber> subscribers) {
+        this.config = config;
+        this.virtualClock = virtualClock;
+        this.subscribers = new ArrayList<>(subscribers);
+    }
+
+    /**
+     * Publishes all ticks of the source, gives subscribers the drain time to receive final rates and shuts the
+     * throttler down. Lags of ticks published in the warm-up aren't reported, the JIT and the detection of slow
+     * subscribers distort them.
+     */
+    public SimulationReport run(TickSource tickSource, long warmUpNanos, long drainVirtualNanos)
+            throws InterruptedException {
+        TickLog tickLog = new TickLog();
+        PriceThrottler priceThrottler = new PriceThrottler(config);
+        for (SimulatedSubscriber subscriber : subscribers) {
+            subscriber.start(virtualClock, tickLog, warmUpNanos);
+            priceThrottler.subscribe(subscriber);
+        }
+
+        virtualClock.reset();
+        long ticksCount = 0;
+        long driverLagNanos = 0;
+        for (Tick tick = tickSource.next(); tick != null; tick = tickSource.next()) {
+            virtualClock.sleepUntil(tick.getVirtualNanos());
+            driverLagNanos = Math.max(driverLagNanos, virtualClock.now() - tick.getVirtualNanos());
+            //Logged before published, so a subscriber always finds the tick of a delivered rate
+            tickLog.onTick(tick);
+            priceThrottler.onPrice(tick.getCcyPair(), tick.getRate());
+            ++ticksCount;
+        }
+        long runNanos = virtualClock.now();
+        virtualClock.sleep(drainVirtualNanos);
+        priceThrottler.shutdown();
+
+        return new SimulationReport(ticksCount, runNanos, driverLagNanos, tickLog, subscribers);
+    }
+}
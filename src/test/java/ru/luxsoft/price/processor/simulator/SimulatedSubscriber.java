@@ -0,0 +1,132 @@
+package ru.luxsoft.price.processor.simulator;
+
+import ru.luxsoft.price.processor.PriceProcessor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Subscriber which spends a virtual onPrice time on every price and records how late delivered rates are.
+ * OnPrice times are log-uniform between the min and the max, from the same seed they come in the same order.
+ */
+public class SimulatedSubscriber implements PriceProcessor {
+
+    private final String name;
+
+    private final String group;
+
+    private final long minOnPriceNanos;
+
+    private final long maxOnPriceNanos;
+
+    private final Random random;
+
+    private final Map<String, Double> lastRates = new HashMap<>();
+
+    private final Map<String, Long> worstLags = new HashMap<>();
+
+    private long[] lags = new long[1024];
+
+    private int lagsCount;
+
+    private long busyNanos;
+
+    private volatile VirtualClock virtualClock;
+
+    private volatile TickLog tickLog;
+
+    private volatile long warmUpNanos;
+
+    /**
+     * @param group - subscribers of a group are compared with each other for fairness
+     */
+    public SimulatedSubscriber(String name, String group, long minOnPriceNanos, long maxOnPriceNanos, long seed) {
+        this.name = name;
+        this.group = group;
+        this.minOnPriceNanos = minOnPriceNanos;
+        this.maxOnPriceNanos = maxOnPriceNanos;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param warmUpNanos - lags of ticks published earlier aren't recorded
+     */
+    void start(VirtualClock virtualClock, TickLog tickLog, long warmUpNanos) {
+        this.virtualClock = virtualClock;
+        this.tickLog = tickLog;
+        this.warmUpNanos = warmUpNanos;
+    }
+
+    @Override
+    public void onPrice(String ccyPair, double rate) {
+        long onPriceNanos = record(ccyPair, rate, tickLog.getVirtualNanos(ccyPair, rate));
+        try {
+            virtualClock.sleep(onPriceNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return virtual onPrice time of the price
+     */
+    private synchronized long record(String ccyPair, double rate, long tickNanos) {
+        if (tickNanos >= warmUpNanos) {
+            if (lagsCount == lags.length) {
+                lags = Arrays.copyOf(lags, lags.length * 2);
+            }
+            long lag = Math.max(0, virtualClock.now() - tickNanos);
+            lags[lagsCount++] = lag;
+            worstLags.merge(ccyPair, lag, Math::max);
+        }
+        lastRates.put(ccyPair, rate);
+        long onPriceNanos = (long) (minOnPriceNanos * Math.pow((double) maxOnPriceNanos / minOnPriceNanos,
+                random.nextDouble()));
+        busyNanos += onPriceNanos;
+
+        return onPriceNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * @return virtual delivery lags of delivered rates, sorted
+     */
+    synchronized long[] getLags() {
+        long[] sorted = Arrays.copyOf(lags, lagsCount);
+        Arrays.sort(sorted);
+
+        return sorted;
+    }
+
+    synchronized Map<String, Double> getLastRates() {
+        return new HashMap<>(lastRates);
+    }
+
+    /**
+     * @return the worst virtual delivery lag of every delivered ccyPair
+     */
+    synchronized Map<String, Long> getWorstLags() {
+        return new HashMap<>(worstLags);
+    }
+
+    /**
+     * @return virtual time spent in onPrice
+     */
+    synchronized long getBusyNanos() {
+        return busyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
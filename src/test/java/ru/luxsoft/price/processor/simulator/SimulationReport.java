@@ -0,0 +1,249 @@
+package ru.luxsoft.price.processor.simulator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Results of a simulation run in virtual time: staleness of every ccyPair, delivery lag of every subscriber and
+ * fairness inside every group of subscribers.
+ */
+public class SimulationReport {
+
+    private final long ticksCount;
+
+    private final long runNanos;
+
+    private final long driverLagNanos;
+
+    private final List<CcyPairResult> ccyPairs = new ArrayList<>();
+
+    private final List<SubscriberResult> subscribers = new ArrayList<>();
+
+    SimulationReport(long ticksCount, long runNanos, long driverLagNanos, TickLog tickLog,
+                     List<SimulatedSubscriber> simulatedSubscribers) {
+        this.ticksCount = ticksCount;
+        this.runNanos = runNanos;
+        this.driverLagNanos = driverLagNanos;
+
+        Map<String, Double> lastRates = new TreeMap<>(tickLog.getLastRates());
+        Map<String, Integer> missedFinalRates = new HashMap<>();
+        Map<String, Long> worstLags = new HashMap<>();
+        for (SimulatedSubscriber subscriber : simulatedSubscribers) {
+            subscriber.getWorstLags().forEach((ccyPair, lag) -> worstLags.merge(ccyPair, lag, Math::max));
+            Map<String, Double> delivered = subscriber.getLastRates();
+            int missed = 0;
+            for (Map.Entry<String, Double> lastRate : lastRates.entrySet()) {
+                if (!lastRate.getValue().equals(delivered.get(lastRate.getKey()))) {
+                    missedFinalRates.merge(lastRate.getKey(), 1, Integer::sum);
+                    ++missed;
+                }
+            }
+            subscribers.add(new SubscriberResult(subscriber.getName(), subscriber.getGroup(), subscriber.getLags(),
+                    (double) subscriber.getBusyNanos() / runNanos, missed));
+        }
+        for (String ccyPair : lastRates.keySet()) {
+            ccyPairs.add(new CcyPairResult(ccyPair, tickLog.getTicksCount(ccyPair),
+                    worstLags.getOrDefault(ccyPair, 0L), missedFinalRates.getOrDefault(ccyPair, 0)));
+        }
+    }
+
+    public long getTicksCount() {
+        return ticksCount;
+    }
+
+    /**
+     * @return how far behind virtual time the ticks were published at worst, a big one means the run is invalid
+     */
+    public long getDriverLagNanos() {
+        return driverLagNanos;
+    }
+
+    public List<CcyPairResult> getCcyPairs() {
+        return ccyPairs;
+    }
+
+    public List<SubscriberResult> getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * @return the worst lag percentile among subscribers of the group
+     */
+    public long getLagNanos(String group, double percentile) {
+        long worst = 0;
+        for (SubscriberResult subscriber : subscribers) {
+            if (subscriber.group.equals(group)) {
+                worst = Math.max(worst, subscriber.getLagNanos(percentile));
+            }
+        }
+
+        return worst;
+    }
+
+    /**
+     * Jain's index of delivered counts inside the group: one if all subscribers got the same count of prices,
+     * 1 / n if one subscriber got them all.
+     */
+    public double getFairness(String group) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        int count = 0;
+        for (SubscriberResult subscriber : subscribers) {
+            if (subscriber.group.equals(group)) {
+                sum += subscriber.getDelivered();
+                sumOfSquares += (double) subscriber.getDelivered() * subscriber.getDelivered();
+                ++count;
+            }
+        }
+
+        return sumOfSquares == 0 ? 1 : sum * sum / (count * sumOfSquares);
+    }
+
+    /**
+     * @return count of ccyPairs whose final rate subscribers of the group haven't got
+     */
+    public int getMissedFinalRates(String group) {
+        int missed = 0;
+        for (SubscriberResult subscriber : subscribers) {
+            if (subscriber.group.equals(group)) {
+                missed += subscriber.missedFinalRates;
+            }
+        }
+
+        return missed;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        result.append("Ticks ").append(ticksCount).append(" in ").append(toMillis(runNanos))
+                .append(" virtual millis, driver lag ").append(toMillis(driverLagNanos)).append(" millis\n");
+        for (SubscriberResult subscriber : subscribers) {
+            result.append(subscriber).append('\n');
+        }
+        subscribers.stream().map(subscriber -> subscriber.group).distinct().forEach(group -> result
+                .append("Group ").append(group)
+                .append(" fairness ").append(String.format("%.3f", getFairness(group)))
+                .append(" lag p99 ms ").append(toMillis(getLagNanos(group, 0.99)))
+                .append(" missed final rates ").append(getMissedFinalRates(group)).append('\n'));
+        for (CcyPairResult ccyPair : ccyPairs) {
+            result.append(ccyPair).append('\n');
+        }
+
+        return result.toString();
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    public static class SubscriberResult {
+
+        private final String name;
+
+        private final String group;
+
+        private final long[] sortedLags;
+
+        private final double utilization;
+
+        private final int missedFinalRates;
+
+        SubscriberResult(String name, String group, long[] sortedLags, double utilization, int missedFinalRates) {
+            this.name = name;
+            this.group = group;
+            this.sortedLags = sortedLags;
+            this.utilization = utilization;
+            this.missedFinalRates = missedFinalRates;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getGroup() {
+            return group;
+        }
+
+        public long getDelivered() {
+            return sortedLags.length;
+        }
+
+        /**
+         * @return virtual delivery lag at the percentile, from zero to one
+         */
+        public long getLagNanos(double percentile) {
+            if (sortedLags.length == 0) {
+                return 0;
+            }
+
+            return sortedLags[Math.min(sortedLags.length - 1, (int) (percentile * sortedLags.length))];
+        }
+
+        /**
+         * @return share of the run the subscriber spent in onPrice
+         */
+        public double getUtilization() {
+            return utilization;
+        }
+
+        public int getMissedFinalRates() {
+            return missedFinalRates;
+        }
+
+        @Override
+        public String toString() {
+            return "Subscriber " + name + " group " + group + " delivered " + getDelivered()
+                    + " lag p50/p99/max ms " + toMillis(getLagNanos(0.5)) + "/" + toMillis(getLagNanos(0.99)) + "/"
+                    + toMillis(getLagNanos(1)) + " utilization " + String.format("%.2f", utilization)
+                    + " missed final rates " + missedFinalRates;
+        }
+    }
+
+    public static class CcyPairResult {
+
+        private final String ccyPair;
+
+        private final long ticks;
+
+        private final long worstStalenessNanos;
+
+        private final int subscribersMissedFinalRate;
+
+        CcyPairResult(String ccyPair, long ticks, long worstStalenessNanos, int subscribersMissedFinalRate) {
+            this.ccyPair = ccyPair;
+            this.ticks = ticks;
+            this.worstStalenessNanos = worstStalenessNanos;
+            this.subscribersMissedFinalRate = subscribersMissedFinalRate;
+        }
+
+        public String getCcyPair() {
+            return ccyPair;
+        }
+
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * @return the worst virtual delivery lag of the ccyPair among all subscribers
+         */
+        public long getWorstStalenessNanos() {
+            return worstStalenessNanos;
+        }
+
+        public int getSubscribersMissedFinalRate() {
+            return subscribersMissedFinalRate;
+        }
+
+        @Override
+        public String toString() {
+            return "CcyPair " + ccyPair + " ticks " + ticks + " worst staleness ms " + toMillis(worstStalenessNanos)
+                    + " subscribers missed final rate " + subscribersMissedFinalRate;
+        }
+    }
+}
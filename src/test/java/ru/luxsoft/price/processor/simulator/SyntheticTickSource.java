@@ -0,0 +1,138 @@
+package ru.luxsoft.price.processor.simulator;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeded generator of ticks which look like a trading day. The same seed always gives the same ticks.
+ *
+ * Ccy pairs tick as Poisson processes. Their frequencies follow Zipf's law, so a few ccyPairs are frequent and most
+ * are rare, and all of them change with the trading session of the virtual hour of day. With a burst probability
+ * a tick may start a burst of ticks at a much higher frequency. Rates walk randomly.
+ */
+public class SyntheticTickSource implements TickSource {
+
+    private static final String[] CURRENCIES = {"EUR", "USD", "JPY", "GBP", "CHF", "AUD", "CAD", "NZD", "SEK", "NOK",
+            "DKK", "PLN", "CZK", "HUF", "TRY", "RUB", "CNH", "HKD", "SGD", "ZAR", "MXN"};
+
+    private static final double MAX_SESSION_ACTIVITY = 1.5;
+
+    private static final double BURST_SPEED_UP = 20;
+
+    private static final double MEAN_BURST_LENGTH = 10;
+
+    private static final double VOLATILITY = 0.0001;
+
+    private static final long NANOS_IN_HOUR = TimeUnit.HOURS.toNanos(1);
+
+    private final Random random;
+
+    private final long durationInNanos;
+
+    private final int startHourOfDay;
+
+    private final double burstProbability;
+
+    private final PriorityQueue<CcyPairState> schedule = new PriorityQueue<>(
+            Comparator.comparingLong((CcyPairState state) -> state.nextNanos).thenComparingInt(state -> state.index));
+
+    /**
+     * @param maxTicksPerSecond - average tick rate of the most frequent ccyPair in the busiest session
+     * @param startHourOfDay - hour of day of virtual zero, sessions follow the virtual hour of day
+     * @param burstProbability - probability of a tick to start a burst, zero means pure Poisson ticks
+     */
+    public SyntheticTickSource(long seed, int ccyPairsCount, double maxTicksPerSecond, long durationInNanos,
+                               int startHourOfDay, double burstProbability) {
+        this.random = new Random(seed);
+        this.durationInNanos = durationInNanos;
+        this.startHourOfDay = startHourOfDay;
+        this.burstProbability = burstProbability;
+        for (int i = 0; i < ccyPairsCount; ++i) {
+            int base = i % CURRENCIES.length;
+            int quote = (base + 1 + i / CURRENCIES.length) % CURRENCIES.length;
+            CcyPairState state = new CcyPairState(i, CURRENCIES[base] + CURRENCIES[quote],
+                    maxTicksPerSecond / MAX_SESSION_ACTIVITY / (i + 1), 0.5 + random.nextDouble() * 150);
+            scheduleNext(state, 0);
+            schedule.add(state);
+        }
+    }
+
+    @Override
+    public Tick next() {
+        while (true) {
+            CcyPairState state = schedule.poll();
+            if (state == null || state.nextNanos > durationInNanos) {
+                return null;
+            }
+            long nanos = state.nextNanos;
+            //Thinning: candidates come at the busiest session frequency, the session activity accepts some of them
+            boolean accepted = state.burstLeft > 0
+                    || random.nextDouble() * MAX_SESSION_ACTIVITY < getSessionActivity(nanos);
+            if (accepted && state.burstLeft == 0 && random.nextDouble() < burstProbability) {
+                state.burstLeft = 1 + (int) (-Math.log(1 - random.nextDouble()) * MEAN_BURST_LENGTH);
+            }
+            scheduleNext(state, nanos);
+            schedule.add(state);
+            if (accepted) {
+                state.rate *= 1 + random.nextGaussian() * VOLATILITY;
+                return new Tick(nanos, state.ccyPair, Math.round(state.rate * 100_000) / 100_000.0);
+            }
+        }
+    }
+
+    /**
+     * @return tick frequency multiplier of the trading session at the virtual time
+     */
+    double getSessionActivity(long virtualNanos) {
+        long hour = (startHourOfDay + virtualNanos / NANOS_IN_HOUR) % 24;
+        if (hour < 7) {
+            //Asia
+            return 0.3;
+        } else if (hour < 12) {
+            //London
+            return 1.0;
+        } else if (hour < 16) {
+            //London and New York
+            return MAX_SESSION_ACTIVITY;
+        } else if (hour < 21) {
+            //New York
+            return 0.8;
+        }
+
+        return 0.1;
+    }
+
+    private void scheduleNext(CcyPairState state, long nanos) {
+        double ticksPerSecond = state.ticksPerSecond * MAX_SESSION_ACTIVITY;
+        if (state.burstLeft > 0) {
+            ticksPerSecond *= BURST_SPEED_UP;
+            --state.burstLeft;
+        }
+        double intervalInSeconds = -Math.log(1 - random.nextDouble()) / ticksPerSecond;
+        state.nextNanos = nanos + Math.max(1, (long) (intervalInSeconds * TimeUnit.SECONDS.toNanos(1)));
+    }
+
+    private static class CcyPairState {
+
+        private final int index;
+
+        private final String ccyPair;
+
+        private final double ticksPerSecond;
+
+        private double rate;
+
+        private long nextNanos;
+
+        private int burstLeft;
+
+        CcyPairState(int index, String ccyPair, double ticksPerSecond, double rate) {
+            this.index = index;
+            this.ccyPair = ccyPair;
+            this.ticksPerSecond = ticksPerSecond;
+            this.rate = rate;
+        }
+    }
+}
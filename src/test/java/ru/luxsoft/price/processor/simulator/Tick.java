@@ -0,0 +1,36 @@
+package ru.luxsoft.price.processor.simulator;
+
+/**
+ * One price of a simulation at its virtual time.
+ */
+public class Tick {
+
+    private final long virtualNanos;
+
+    private final String ccyPair;
+
+    private final double rate;
+
+    public Tick(long virtualNanos, String ccyPair, double rate) {
+        this.virtualNanos = virtualNanos;
+        this.ccyPair = ccyPair;
+        this.rate = rate;
+    }
+
+    public long getVirtualNanos() {
+        return virtualNanos;
+    }
+
+    public String getCcyPair() {
+        return ccyPair;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    @Override
+    public String toString() {
+        return virtualNanos + "," + ccyPair + "," + rate;
+    }
+}
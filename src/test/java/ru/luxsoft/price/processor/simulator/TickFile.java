@@ -0,0 +1,67 @@
+package ru.luxsoft.price.processor.simulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Recorded ticks, one "virtualNanos,ccyPair,rate" line per tick in order of time. Lines starting with # are
+ * comments. A production capture converted to this format replays the same way as a synthetic one.
+ */
+public final class TickFile {
+
+    private TickFile() {
+    }
+
+    /**
+     * Writes all ticks of the source to the file.
+     *
+     * @return count of written ticks
+     */
+    public static long write(Path path, TickSource tickSource) throws IOException {
+        long count = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write("#virtualNanos,ccyPair,rate");
+            writer.newLine();
+            for (Tick tick = tickSource.next(); tick != null; tick = tickSource.next()) {
+                writer.write(tick.toString());
+                writer.newLine();
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * @return source which replays ticks of the file, it closes the file after the last tick
+     */
+    public static TickSource replay(Path path) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+
+        return () -> {
+            try {
+                String line;
+                do {
+                    line = reader.readLine();
+                } while (line != null && (line.isEmpty() || line.startsWith("#")));
+                if (line == null) {
+                    reader.close();
+                    return null;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("Wrong tick line: " + line);
+                }
+
+                return new Tick(Long.parseLong(fields[0]), fields[1], Double.parseDouble(fields[2]));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package ru.luxsoft.price.processor.simulator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Virtual times of recent published rates of every ccyPair, so subscribers know how late a delivered rate is.
+ */
+class TickLog {
+
+    private static final int HISTORY_SIZE = 4096;
+
+    private final Map<String, History> histories = new HashMap<>();
+
+    synchronized void onTick(Tick tick) {
+        histories.computeIfAbsent(tick.getCcyPair(), ccyPair -> new History()).add(tick);
+    }
+
+    /**
+     * @return virtual time of the latest tick of the rate or -1 if it is older than the history
+     */
+    synchronized long getVirtualNanos(String ccyPair, double rate) {
+        History history = histories.get(ccyPair);
+
+        return history == null ? -1 : history.find(rate);
+    }
+
+    /**
+     * @return the last published rate of every ccyPair
+     */
+    synchronized Map<String, Double> getLastRates() {
+        Map<String, Double> lastRates = new HashMap<>();
+        histories.forEach((ccyPair, history) -> lastRates.put(ccyPair, history.getLastRate()));
+
+        return lastRates;
+    }
+
+    synchronized long getTicksCount(String ccyPair) {
+        History history = histories.get(ccyPair);
+
+        return history == null ? 0 : history.count;
+    }
+
+    private static class History {
+
+        private final double[] rates = new double[HISTORY_SIZE];
+
+        private final long[] virtualNanos = new long[HISTORY_SIZE];
+
+        private long count;
+
+        void add(Tick tick) {
+            int index = (int) (count++ % HISTORY_SIZE);
+            rates[index] = tick.getRate();
+            virtualNanos[index] = tick.getVirtualNanos();
+        }
+
+        long find(double rate) {
+            for (long i = count - 1; i >= 0 && i >= count - HISTORY_SIZE; --i) {
+                int index = (int) (i % HISTORY_SIZE);
+                if (rates[index] == rate) {
+                    return virtualNanos[index];
+                }
+            }
+
+            return -1;
+        }
+
+        double getLastRate() {
+            return rates[(int) ((count - 1) % HISTORY_SIZE)];
+        }
+    }
+}
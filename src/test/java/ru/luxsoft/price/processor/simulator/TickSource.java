@@ -0,0 +1,12 @@
+package ru.luxsoft.price.processor.simulator;
+
+/**
+ * Ticks of a simulation in order of their virtual time.
+ */
+public interface TickSource {
+
+    /**
+     * @return the next tick or null if there are no more ticks
+     */
+    Tick next();
+}
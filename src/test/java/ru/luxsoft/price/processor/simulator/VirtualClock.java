@@ -0,0 +1,73 @@
+package ru.luxsoft.price.processor.simulator;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated time which runs speedUp times faster than the wall clock, so a simulated trading day takes minutes.
+ * Ticks and onPrice times of a simulation are given in virtual nanos, the throttler sees them scaled down.
+ */
+public class VirtualClock {
+
+    //Shorter waits spin, parkNanos is too coarse for them
+    private static final long SPIN_THRESHOLD_IN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final double speedUp;
+
+    private volatile long startNanos;
+
+    public VirtualClock(double speedUp) {
+        this.speedUp = speedUp;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Makes the current moment virtual zero.
+     */
+    public void reset() {
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * @return virtual nanos since the reset
+     */
+    public long now() {
+        return (long) ((System.nanoTime() - startNanos) * speedUp);
+    }
+
+    /**
+     * Waits until the virtual time comes.
+     */
+    public void sleepUntil(long virtualNanos) throws InterruptedException {
+        long realDeadline = startNanos + toRealNanos(virtualNanos);
+        while (true) {
+            long left = realDeadline - System.nanoTime();
+            if (left <= 0) {
+                return;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (left > SPIN_THRESHOLD_IN_NANOS) {
+                LockSupport.parkNanos(left - SPIN_THRESHOLD_IN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Waits for the virtual duration.
+     */
+    public void sleep(long virtualNanos) throws InterruptedException {
+        sleepUntil(now() + virtualNanos);
+    }
+
+    public long toRealNanos(long virtualNanos) {
+        return (long) (virtualNanos / speedUp);
+    }
+
+    public double getSpeedUp() {
+        return speedUp;
+    }
+}
@@ -1,10 +1,11 @@
 package ru.luxsoft.price.processor.subscriber;
 
-import ru.luxsoft.price.processor.PriceProcessor;
+import ru.luxsoft.price.processor.BatchPriceProcessor;
+import ru.luxsoft.price.processor.PriceSnapshot;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
-public class PrinterSubscriber implements PriceProcessor {
+public class PrinterSubscriber implements BatchPriceProcessor {
 
     private AtomicInteger handledPricesCounter;
 
@@ -18,6 +19,12 @@ public class PrinterSubscriber implements PriceProcessor {
         handledPricesCounter.incrementAndGet();
     }
 
+    @Override
+    public void onPrices(PriceSnapshot prices) {
+        printPriceOnPaper();
+        handledPricesCounter.addAndGet(prices.size());
+    }
+
     private void printPriceOnPaper() {
         try {
             Thread.sleep(2000);
@@ -0,0 +1,114 @@
+package ru.luxsoft.price.processor.throttler;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Offers tasks of every priority class from several threads while several threads take them and another one removes
+//some, round after round. Checks every task of a round is either run or removed, so no task is left without
+//a permit and no taking thread is left without a task. Exits with status 1 if not
+class ReadyQueueStressTest {
+
+    private static final int ROUNDS_COUNT = 2000;
+
+    private static final int PRODUCERS_COUNT = 3;
+
+    private static final int CONSUMERS_COUNT = 4;
+
+    private static final int TASKS_PER_PRODUCER = 50;
+
+    private static final long ROUND_TIMEOUT_IN_MILLIS = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        ReadyQueue readyQueue = new ReadyQueue();
+        AtomicInteger run = new AtomicInteger();
+        Thread[] consumers = new Thread[CONSUMERS_COUNT];
+        for (int i = 0; i < CONSUMERS_COUNT; ++i) {
+            consumers[i] = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Runnable task = readyQueue.take();
+                        if (task != null) {
+                            task.run();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    //Stopped
+                }
+            }, "consumer-" + i);
+            consumers[i].start();
+        }
+
+        boolean passed = true;
+        int removed = 0;
+        for (int round = 1; round <= ROUNDS_COUNT && passed; ++round) {
+            Thread[] producers = new Thread[PRODUCERS_COUNT];
+            PrioritizedTask[][] tasks = new PrioritizedTask[PRODUCERS_COUNT][TASKS_PER_PRODUCER];
+            for (int i = 0; i < PRODUCERS_COUNT; ++i) {
+                PrioritizedTask[] producerTasks = tasks[i];
+                for (int j = 0; j < TASKS_PER_PRODUCER; ++j) {
+                    PriorityClass[] priorityClasses = PriorityClass.values();
+                    producerTasks[j] = new PrioritizedTask(priorityClasses[(i + j) % priorityClasses.length], run);
+                }
+                producers[i] = new Thread(() -> {
+                    for (PrioritizedTask task : producerTasks) {
+                        readyQueue.offer(task);
+                    }
+                }, "producer-" + i);
+            }
+            for (Thread producer : producers) {
+                producer.start();
+            }
+            //Removes random tasks while they are offered and taken, like a pool purging cancelled tasks
+            for (int j = 0; j < TASKS_PER_PRODUCER / 10; ++j) {
+                PrioritizedTask[] producerTasks = tasks[ThreadLocalRandom.current().nextInt(PRODUCERS_COUNT)];
+                if (readyQueue.remove(producerTasks[ThreadLocalRandom.current().nextInt(TASKS_PER_PRODUCER)])) {
+                    ++removed;
+                }
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+
+            int expected = round * PRODUCERS_COUNT * TASKS_PER_PRODUCER;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ROUND_TIMEOUT_IN_MILLIS);
+            while (run.get() + removed < expected && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            if (run.get() + removed != expected || !readyQueue.isEmpty()) {
+                System.out.println("Round " + round + ": offered " + expected + ", run " + run.get() + ", removed "
+                        + removed + ", left in the queue " + readyQueue.size());
+                passed = false;
+            }
+        }
+        for (Thread consumer : consumers) {
+            consumer.interrupt();
+            consumer.join();
+        }
+
+        System.out.println("Tasks run " + run.get() + ", removed " + removed);
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static class PrioritizedTask implements Runnable, ReadyQueue.Prioritized {
+
+        private final PriorityClass priorityClass;
+
+        private final AtomicInteger run;
+
+        PrioritizedTask(PriorityClass priorityClass, AtomicInteger run) {
+            this.priorityClass = priorityClass;
+            this.run = run;
+        }
+
+        @Override
+        public PriorityClass getPriorityClass() {
+            return priorityClass;
+        }
+
+        @Override
+        public void run() {
+            run.incrementAndGet();
+        }
+    }
+}